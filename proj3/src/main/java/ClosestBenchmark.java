@@ -0,0 +1,80 @@
+import java.util.Random;
+
+/**
+ * Compares GraphDB.closest, which uses the spatial index, against the linear scan it replaced,
+ * on random points in the bounding box of the graph. Pass a different OSM file as the first
+ * argument if you like, and the number of points as the second. The scan is slow, so it only
+ * runs on the first few thousand points; times are reported per query.
+ */
+public class ClosestBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int DEFAULT_QUERIES = 100000;
+    private static final int SCAN_QUERIES = 2000;
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        GraphDB g = GraphDB.load(dbPath);
+        if (g.vertexCount() == 0) {
+            System.out.println("No vertices in " + dbPath + ".");
+            return;
+        }
+
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < g.vertexCount(); v += 1) {
+            minLon = Math.min(minLon, g.lonAt(v));
+            maxLon = Math.max(maxLon, g.lonAt(v));
+            minLat = Math.min(minLat, g.latAt(v));
+            maxLat = Math.max(maxLat, g.latAt(v));
+        }
+        Random random = new Random(61);
+        double[] lons = new double[queries];
+        double[] lats = new double[queries];
+        for (int i = 0; i < queries; i += 1) {
+            lons[i] = minLon + random.nextDouble() * (maxLon - minLon);
+            lats[i] = minLat + random.nextDouble() * (maxLat - minLat);
+        }
+
+        long start = System.nanoTime();
+        SpatialIndex index = new SpatialIndex(g.lons, g.lats);
+        long buildNanos = System.nanoTime() - start;
+
+        /* Warm up both. */
+        long checksum = 0;
+        for (int i = 0; i < Math.min(queries, SCAN_QUERIES); i += 1) {
+            checksum += g.closest(lons[i], lats[i]) + g.closestByScan(lons[i], lats[i]);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i += 1) {
+            checksum += g.closest(lons[i], lats[i]);
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        int scanQueries = Math.min(queries, SCAN_QUERIES);
+        start = System.nanoTime();
+        for (int i = 0; i < scanQueries; i += 1) {
+            checksum += g.closestByScan(lons[i], lats[i]);
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        int mismatches = 0;
+        for (int i = 0; i < scanQueries; i += 1) {
+            if (g.closest(lons[i], lats[i]) != g.closestByScan(lons[i], lats[i])) {
+                mismatches += 1;
+            }
+        }
+
+        double indexMicros = indexNanos / 1e3 / queries;
+        double scanMicros = scanNanos / 1e3 / scanQueries;
+        System.out.println("Graph: " + g.vertexCount() + " vertices, index built in "
+                + buildNanos / 1000000 + " ms (checksum " + checksum + ").");
+        System.out.printf("Linear scan: %10.2f us per query (%d queries)%n", scanMicros,
+                scanQueries);
+        System.out.printf("Index:       %10.2f us per query (%d queries)%n", indexMicros,
+                queries);
+        System.out.printf("Speedup:     %10.1fx, %d mismatches%n", scanMicros / indexMicros,
+                mismatches);
+    }
+}
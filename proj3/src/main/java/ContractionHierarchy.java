@@ -0,0 +1,451 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A contraction hierarchy over the road graph of a GraphDB, for answering shortest path
+ * queries while settling only a few hundred vertices.
+ *
+ * Preprocessing contracts the vertices one at a time, least important first. Contracting v
+ * removes it from the graph, and for every pair of its neighbors u and w whose shortest path
+ * runs through v, adds a shortcut edge u-w that remembers v as its middle vertex. Vertices
+ * are ranked in the order they were contracted. A vertex is the less important the fewer
+ * shortcuts it would add per edge it removes, counting both edges and the original edges
+ * they stand for, and the lower its level, which is one more than the highest level of its
+ * contracted neighbors. The level term spreads contraction evenly over the map.
+ *
+ * A query runs Dijkstra's algorithm from both endpoints at once, each side only following
+ * edges up to higher ranked vertices. The shortest path is the best meeting point of the two
+ * searches, and its shortcuts are then unpacked into the original vertices.
+ */
+public class ContractionHierarchy {
+    /** How many vertices a witness search may settle before giving up and adding a shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+    /** The same, when only estimating how many shortcuts contracting a vertex would add. */
+    private static final int ESTIMATE_SETTLE_LIMIT = 16;
+
+    private final GraphDB g;
+    /** The position of every vertex in the contraction order. */
+    final int[] rank;
+    /*
+     * The upward graph in compressed sparse row form: the edges from v to higher ranked
+     * vertices are upTargets[upOffsets[v]] .. upTargets[upOffsets[v + 1] - 1]. upMiddles holds
+     * the middle vertex of a shortcut, or -1 for an original edge. These and rank are
+     * package-private so GraphSnapshot can save and restore them.
+     */
+    final int[] upOffsets;
+    final int[] upTargets;
+    final double[] upWeights;
+    final int[] upMiddles;
+
+    /**
+     * Builds the hierarchy for a graph, with edges weighted by their length.
+     * @param g The graph.
+     */
+    public ContractionHierarchy(GraphDB g) {
+        this(g, g.edgeLengths);
+    }
+
+    /**
+     * Builds the hierarchy for a graph.
+     * @param g The graph.
+     * @param weights The weight of every edge of g, by edge number.
+     */
+    ContractionHierarchy(GraphDB g, double[] weights) {
+        this.g = g;
+        Contraction c = new Contraction(g, weights);
+        c.run();
+        rank = c.rank;
+        int n = g.vertexCount();
+        upOffsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            upOffsets[v + 1] = upOffsets[v] + c.upSize[v];
+        }
+        upTargets = new int[upOffsets[n]];
+        upWeights = new double[upOffsets[n]];
+        upMiddles = new int[upOffsets[n]];
+        for (int v = 0; v < n; v += 1) {
+            System.arraycopy(c.upTargets[v], 0, upTargets, upOffsets[v], c.upSize[v]);
+            System.arraycopy(c.upWeights[v], 0, upWeights, upOffsets[v], c.upSize[v]);
+            System.arraycopy(c.upMiddles[v], 0, upMiddles, upOffsets[v], c.upSize[v]);
+        }
+    }
+
+    /** Creates a hierarchy from its arrays, as saved by GraphSnapshot. */
+    ContractionHierarchy(GraphDB g, int[] rank, int[] upOffsets, int[] upTargets,
+                         double[] upWeights, int[] upMiddles) {
+        this.g = g;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    /**
+     * Returns the number of shortcut edges preprocessing added.
+     * @return The number of shortcuts.
+     */
+    public int shortcutCount() {
+        int shortcuts = 0;
+        for (int middle : upMiddles) {
+            if (middle >= 0) {
+                shortcuts += 1;
+            }
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Returns the shortest path between two vertices.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @param forward A freshly reset search space for the search from s.
+     * @param backward A freshly reset search space for the search from t.
+     * @return The ids of the vertices on the path, or an empty list if there is none.
+     */
+    List<Long> shortestPath(int s, int t, SearchSpace forward, SearchSpace backward) {
+        forward.reach(s, 0, -1);
+        forward.queue.put(s, 0);
+        backward.reach(t, 0, -1);
+        backward.queue.put(t, 0);
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        boolean forwardTurn = true;
+        while (true) {
+            boolean forwardDone = forward.queue.isEmpty() || forward.queue.peekPriority() >= best;
+            boolean backwardDone = backward.queue.isEmpty()
+                    || backward.queue.peekPriority() >= best;
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            if (forwardDone || (!backwardDone && !forwardTurn)) {
+                int v = settle(backward);
+                double d = backward.distTo(v) + forward.distTo(v);
+                if (d < best) {
+                    best = d;
+                    meet = v;
+                }
+            } else {
+                int v = settle(forward);
+                double d = forward.distTo(v) + backward.distTo(v);
+                if (d < best) {
+                    best = d;
+                    meet = v;
+                }
+            }
+            forwardTurn = !forwardTurn;
+        }
+        if (meet < 0) {
+            return new ArrayList<>();
+        }
+
+        List<Long> path = new ArrayList<>();
+        path.add(g.idOf(meet));
+        for (int v = meet; forward.edgeTo(v) >= 0; v = forward.edgeTo(v)) {
+            unpack(v, forward.edgeTo(v), path);
+        }
+        Collections.reverse(path);
+        for (int v = meet; backward.edgeTo(v) >= 0; v = backward.edgeTo(v)) {
+            unpack(v, backward.edgeTo(v), path);
+        }
+        return path;
+    }
+
+    /**
+     * Takes the next vertex off a search's queue and relaxes its upward edges, unless the
+     * search already reached a higher vertex from which v is closer. Such a vertex is not on a
+     * shortest path from where the search started, so there is no point expanding it; this
+     * "stall on demand" skips much of the search space.
+     */
+    private int settle(SearchSpace space) {
+        int v = space.queue.poll();
+        space.settled += 1;
+        double dv = space.distTo(v);
+        for (int e = upOffsets[v]; e < upOffsets[v + 1]; e += 1) {
+            if (space.distTo(upTargets[e]) + upWeights[e] < dv) {
+                return v;
+            }
+        }
+        for (int e = upOffsets[v]; e < upOffsets[v + 1]; e += 1) {
+            int w = upTargets[e];
+            double d = dv + upWeights[e];
+            if (d < space.distTo(w)) {
+                space.reach(w, d, v);
+                space.queue.put(w, d);
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Appends the original vertices of the edge from a to b to a path, excluding a and
+     * including b.
+     */
+    private void unpack(int a, int b, List<Long> path) {
+        int middle = middle(a, b);
+        if (middle < 0) {
+            path.add(g.idOf(b));
+        } else {
+            unpack(a, middle, path);
+            unpack(middle, b, path);
+        }
+    }
+
+    /** Returns the middle vertex of the edge between a and b, or -1 if it is an original edge. */
+    private int middle(int a, int b) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        int middle = -1;
+        double weight = Double.POSITIVE_INFINITY;
+        for (int e = upOffsets[low]; e < upOffsets[low + 1]; e += 1) {
+            if (upTargets[e] == high && upWeights[e] < weight) {
+                middle = upMiddles[e];
+                weight = upWeights[e];
+            }
+        }
+        return middle;
+    }
+
+    /**
+     * The state of preprocessing: the remaining graph, which changes as vertices are contracted
+     * and shortcuts are added, and the upward edges collected so far.
+     */
+    private static class Contraction {
+        private final int n;
+        /* Adjacency lists of the remaining graph; every edge is stored at both endpoints. */
+        private final int[][] targets;
+        private final double[][] weights;
+        private final int[][] middles;
+        /** How many original edges each edge stands for. */
+        private final int[][] hops;
+        private final int[] size;
+
+        private final int[] level;
+        final int[] rank;
+        final int[][] upTargets;
+        final double[][] upWeights;
+        final int[][] upMiddles;
+        final int[] upSize;
+
+        private final SearchSpace witness;
+        /** Marks the neighbors a witness search is looking for. */
+        private final boolean[] isTarget;
+        /* Shortcuts found by the last call to findShortcuts. */
+        private int[] shortcutEnds = new int[16];
+        private double[] shortcutWeights = new double[8];
+        private int[] shortcutHops = new int[8];
+        private int shortcutCount;
+
+        Contraction(GraphDB g, double[] edgeWeights) {
+            n = g.vertexCount();
+            targets = new int[n][];
+            weights = new double[n][];
+            middles = new int[n][];
+            hops = new int[n][];
+            size = new int[n];
+            for (int v = 0; v < n; v += 1) {
+                int degree = g.degree(v);
+                targets[v] = new int[Math.max(degree, 1)];
+                weights[v] = new double[Math.max(degree, 1)];
+                middles[v] = new int[Math.max(degree, 1)];
+                hops[v] = new int[Math.max(degree, 1)];
+                for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                    addOrImprove(v, g.edgeTarget(e), edgeWeights[e], -1, 1);
+                }
+            }
+            level = new int[n];
+            rank = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            upSize = new int[n];
+            witness = new SearchSpace(n);
+            isTarget = new boolean[n];
+        }
+
+        void run() {
+            IndexMinHeap queue = new IndexMinHeap(n);
+            for (int v = 0; v < n; v += 1) {
+                queue.put(v, priority(v));
+            }
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                /* Priorities go stale as neighbors get contracted; check before committing. */
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekPriority()) {
+                    queue.put(v, p);
+                    continue;
+                }
+                contract(v);
+                rank[v] = next;
+                next += 1;
+            }
+        }
+
+        private double priority(int v) {
+            if (size[v] == 0) {
+                return level[v];
+            }
+            findShortcuts(v, ESTIMATE_SETTLE_LIMIT);
+            int addedHops = 0;
+            for (int i = 0; i < shortcutCount; i += 1) {
+                addedHops += shortcutHops[i];
+            }
+            int removedHops = 0;
+            for (int i = 0; i < size[v]; i += 1) {
+                removedHops += hops[v][i];
+            }
+            return level[v] + (double) shortcutCount / size[v]
+                    + (double) addedHops / removedHops;
+        }
+
+        /** Removes v from the remaining graph, adding the shortcuts it needs. */
+        private void contract(int v) {
+            findShortcuts(v, WITNESS_SETTLE_LIMIT);
+            upTargets[v] = Arrays.copyOf(targets[v], size[v]);
+            upWeights[v] = Arrays.copyOf(weights[v], size[v]);
+            upMiddles[v] = Arrays.copyOf(middles[v], size[v]);
+            upSize[v] = size[v];
+            for (int i = 0; i < size[v]; i += 1) {
+                int u = targets[v][i];
+                remove(u, v);
+                level[u] = Math.max(level[u], level[v] + 1);
+            }
+            for (int i = 0; i < shortcutCount; i += 1) {
+                int u = shortcutEnds[2 * i];
+                int w = shortcutEnds[2 * i + 1];
+                addOrImprove(u, w, shortcutWeights[i], v, shortcutHops[i]);
+                addOrImprove(w, u, shortcutWeights[i], v, shortcutHops[i]);
+            }
+            /* Free the adjacency list; its contents live on in the upward graph. */
+            targets[v] = null;
+            weights[v] = null;
+            middles[v] = null;
+            hops[v] = null;
+            size[v] = 0;
+        }
+
+        /**
+         * Finds the shortcuts contracting v would need: for each pair of neighbors u and w,
+         * one unless a witness search from u finds a path to w that avoids v and is no longer
+         * than the path through v. A witness search that gives up early adds a shortcut that
+         * may not be needed, which costs query time but never correctness.
+         */
+        private void findShortcuts(int v, int settleLimit) {
+            shortcutCount = 0;
+            int degree = size[v];
+            for (int i = 0; i < degree; i += 1) {
+                isTarget[targets[v][i]] = true;
+            }
+            for (int i = 0; i < degree; i += 1) {
+                int u = targets[v][i];
+                /* From here on only the neighbors after u are asked about. */
+                isTarget[u] = false;
+                if (i == degree - 1) {
+                    continue;
+                }
+                /* Zero-weight edges, e.g. between nodes at the same spot, can make this 0. */
+                double maxThrough = 0;
+                for (int j = i + 1; j < degree; j += 1) {
+                    maxThrough = Math.max(maxThrough, weights[v][i] + weights[v][j]);
+                }
+                witnessSearch(u, v, maxThrough, degree - i - 1, settleLimit);
+                for (int j = i + 1; j < degree; j += 1) {
+                    int w = targets[v][j];
+                    double through = weights[v][i] + weights[v][j];
+                    if (witness.distTo(w) > through) {
+                        addShortcut(u, w, through, hops[v][i] + hops[v][j]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Runs Dijkstra's algorithm from u in the remaining graph without v, until it gets past
+         * a distance limit or has settled the given number of v's neighbors after u, which are
+         * the only ones the caller asks about.
+         */
+        private void witnessSearch(int u, int v, double limit, int targetCount, int settleLimit) {
+            witness.reset();
+            witness.reach(u, 0, -1);
+            witness.queue.put(u, 0);
+            while (!witness.queue.isEmpty() && witness.settled < settleLimit) {
+                int x = witness.queue.poll();
+                witness.settled += 1;
+                double dx = witness.distTo(x);
+                if (dx > limit) {
+                    break;
+                }
+                if (isTarget[x]) {
+                    targetCount -= 1;
+                    if (targetCount == 0) {
+                        break;
+                    }
+                }
+                for (int i = 0; i < size[x]; i += 1) {
+                    int y = targets[x][i];
+                    double d = dx + weights[x][i];
+                    if (y != v && d < witness.distTo(y)) {
+                        witness.reach(y, d, x);
+                        witness.queue.put(y, d);
+                    }
+                }
+            }
+        }
+
+        private void addShortcut(int u, int w, double weight, int hopCount) {
+            if (shortcutCount == shortcutWeights.length) {
+                shortcutEnds = Arrays.copyOf(shortcutEnds, 4 * shortcutCount);
+                shortcutWeights = Arrays.copyOf(shortcutWeights, 2 * shortcutCount);
+                shortcutHops = Arrays.copyOf(shortcutHops, 2 * shortcutCount);
+            }
+            shortcutEnds[2 * shortcutCount] = u;
+            shortcutEnds[2 * shortcutCount + 1] = w;
+            shortcutWeights[shortcutCount] = weight;
+            shortcutHops[shortcutCount] = hopCount;
+            shortcutCount += 1;
+        }
+
+        /** Adds the edge v-w to v's list, or lowers its weight if it is already there. */
+        private void addOrImprove(int v, int w, double weight, int middle, int hopCount) {
+            for (int i = 0; i < size[v]; i += 1) {
+                if (targets[v][i] == w) {
+                    if (weight < weights[v][i]) {
+                        weights[v][i] = weight;
+                        middles[v][i] = middle;
+                        hops[v][i] = hopCount;
+                    }
+                    return;
+                }
+            }
+            if (size[v] == targets[v].length) {
+                targets[v] = Arrays.copyOf(targets[v], 2 * size[v]);
+                weights[v] = Arrays.copyOf(weights[v], 2 * size[v]);
+                middles[v] = Arrays.copyOf(middles[v], 2 * size[v]);
+                hops[v] = Arrays.copyOf(hops[v], 2 * size[v]);
+            }
+            targets[v][size[v]] = w;
+            weights[v][size[v]] = weight;
+            middles[v][size[v]] = middle;
+            hops[v][size[v]] = hopCount;
+            size[v] += 1;
+        }
+
+        /** Removes the edge to w from v's list. */
+        private void remove(int v, int w) {
+            for (int i = 0; i < size[v]; i += 1) {
+                if (targets[v][i] == w) {
+                    size[v] -= 1;
+                    targets[v][i] = targets[v][size[v]];
+                    weights[v][i] = weights[v][size[v]];
+                    middles[v][i] = middles[v][size[v]];
+                    hops[v][i] = hops[v][size[v]];
+                    return;
+                }
+            }
+        }
+    }
+}
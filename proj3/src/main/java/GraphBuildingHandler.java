@@ -3,7 +3,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -23,6 +25,10 @@ import java.util.Set;
  *  element in the file. This is a very common but strange-when-you-first-see it pattern.
  *  It is similar to the Visitor pattern we discussed for graphs.
  *
+ *  The SAX callbacks below are thin translations into the startNode, startWay, wayNode, tag,
+ *  endWay and endNode events, which OsmStreamParser calls directly without building Strings
+ *  for element names or numbers.
+ *
  *  @author Alan Yao, Maurice Lee
  */
 public class GraphBuildingHandler extends DefaultHandler {
@@ -36,15 +42,63 @@ public class GraphBuildingHandler extends DefaultHandler {
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
-    private String activeState = "";
-    private final GraphDB g;
+
+    /**
+     * The speed, in miles per hour, to assume on a road of each allowed type that has no
+     * maxspeed tag: roughly the usual limit for such a road in California.
+     */
+    private static final Map<String, Integer> DEFAULT_SPEEDS = new HashMap<>();
+    static {
+        DEFAULT_SPEEDS.put("motorway", 65);
+        DEFAULT_SPEEDS.put("trunk", 55);
+        DEFAULT_SPEEDS.put("primary", 40);
+        DEFAULT_SPEEDS.put("secondary", 35);
+        DEFAULT_SPEEDS.put("tertiary", 30);
+        DEFAULT_SPEEDS.put("unclassified", 25);
+        DEFAULT_SPEEDS.put("residential", 25);
+        DEFAULT_SPEEDS.put("living_street", 10);
+        DEFAULT_SPEEDS.put("motorway_link", 45);
+        DEFAULT_SPEEDS.put("trunk_link", 40);
+        DEFAULT_SPEEDS.put("primary_link", 30);
+        DEFAULT_SPEEDS.put("secondary_link", 30);
+        DEFAULT_SPEEDS.put("tertiary_link", 25);
+    }
+    /** Speeds are kept in one unsigned byte per edge, so they go up to this. */
+    static final int MAX_SPEED = 255;
+    private static final double MILES_PER_KILOMETER = 0.621371;
+
+    /** The element we are inside of. */
+    private static final int NONE = 0;
+    private static final int NODE = 1;
+    private static final int WAY = 2;
+
+    /** Tag keys we care about. Every other key is KEY_OTHER. */
+    static final int KEY_OTHER = 0;
+    static final int KEY_NAME = 1;
+    static final int KEY_HIGHWAY = 2;
+    static final int KEY_MAXSPEED = 3;
+
+    private int activeState = NONE;
+    private final OsmExtract extract;
+    /** The last node seen, so that a name tag inside it can be attached to it. */
+    private long lastNodeId;
+    private double lastNodeLon;
+    private double lastNodeLat;
+    /** The nodes of the way being read, connected only once the way is known to be valid. */
+    private long[] wayNodes = new long[64];
+    private int wayNodeCount;
+    private boolean wayIsValid;
+    private String wayName;
+    private String wayHighway;
+    /** The speed limit of the way in miles per hour, or 0 if it has none we understand. */
+    private int wayMaxSpeed;
 
     /**
      * Create a new GraphBuildingHandler.
-     * @param g The graph to populate with the XML data.
+     * @param extract The extract to populate with the XML data.
      */
-    public GraphBuildingHandler(GraphDB g) {
-        this.g = g;
+    public GraphBuildingHandler(OsmExtract extract) {
+        this.extract = extract;
     }
 
     /**
@@ -64,55 +118,26 @@ public class GraphBuildingHandler extends DefaultHandler {
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes)
             throws SAXException {
-        /* Some example code on how you might begin to parse XML files. */
-        if (qName.equals("node")) {
-            /* We encountered a new <node...> tag. */
-            activeState = "node";
-//            System.out.println("Node id: " + attributes.getValue("id"));
-//            System.out.println("Node lon: " + attributes.getValue("lon"));
-//            System.out.println("Node lat: " + attributes.getValue("lat"));
-
-            /* TODO Use the above information to save a "node" to somewhere. */
-            /* Hint: A graph-like structure would be nice. */
-
-        } else if (qName.equals("way")) {
-            /* We encountered a new <way...> tag. */
-            activeState = "way";
-//            System.out.println("Beginning a way...");
-        } else if (activeState.equals("way") && qName.equals("nd")) {
-            /* While looking at a way, we found a <nd...> tag. */
-            //System.out.println("Id of a node in this way: " + attributes.getValue("ref"));
-
-            /* TODO Use the above id to make "possible" connections between the nodes in this way */
-            /* Hint1: It would be useful to remember what was the last node in this way. */
-            /* Hint2: Not all ways are valid. So, directly connecting the nodes here would be
-            cumbersome since you might have to remove the connections if you later see a tag that
-            makes this way invalid. Instead, think of keeping a list of possible connections and
-            remember whether this way is valid or not. */
-
-        } else if (activeState.equals("way") && qName.equals("tag")) {
-            /* While looking at a way, we found a <tag...> tag. */
-            String k = attributes.getValue("k");
-            String v = attributes.getValue("v");
-            if (k.equals("maxspeed")) {
-                //System.out.println("Max Speed: " + v);
-                /* TODO set the max speed of the "current way" here. */
-            } else if (k.equals("highway")) {
-                //System.out.println("Highway type: " + v);
-                /* TODO Figure out whether this way and its connections are valid. */
-                /* Hint: Setting a "flag" is good enough! */
-            } else if (k.equals("name")) {
-                //System.out.println("Way Name: " + v);
-            }
-//            System.out.println("Tag with k=" + k + ", v=" + v + ".");
-        } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
-                .equals("name")) {
-            /* While looking at a node, we found a <tag...> with k="name". */
-            /* TODO Create a location. */
-            /* Hint: Since we found this <tag...> INSIDE a node, we should probably remember which
-            node this tag belongs to. Remember XML is parsed top-to-bottom, so probably it's the
-            last node that you looked at (check the first if-case). */
-//            System.out.println("Node's name: " + attributes.getValue("v"));
+        switch (qName) {
+            case "node":
+                startNode(Long.parseLong(attributes.getValue("id")),
+                        Double.parseDouble(attributes.getValue("lon")),
+                        Double.parseDouble(attributes.getValue("lat")));
+                break;
+            case "way":
+                startWay();
+                break;
+            case "nd":
+                wayNode(Long.parseLong(attributes.getValue("ref")));
+                break;
+            case "tag":
+                int key = keyCode(attributes.getValue("k"));
+                if (wantsTag(key)) {
+                    tag(key, attributes.getValue("v"));
+                }
+                break;
+            default:
+                break;
         }
     }
 
@@ -130,11 +155,147 @@ public class GraphBuildingHandler extends DefaultHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
-            /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
-            /* Hint1: If you have stored the possible connections for this way, here's your
-            chance to actually connect the nodes together if the way is valid. */
-//            System.out.println("Finishing a way...");
+            endWay();
+        } else if (qName.equals("node")) {
+            endNode();
         }
     }
 
+    /**
+     * Maps a tag key to one of the KEY_ constants.
+     * @param k The key of a tag.
+     * @return Its code.
+     */
+    static int keyCode(String k) {
+        switch (k) {
+            case "name":
+                return KEY_NAME;
+            case "highway":
+                return KEY_HIGHWAY;
+            case "maxspeed":
+                return KEY_MAXSPEED;
+            default:
+                return KEY_OTHER;
+        }
+    }
+
+    /**
+     * Called for a <node...> element.
+     * @param id The id of the node.
+     * @param lon The longitude of the node.
+     * @param lat The latitude of the node.
+     */
+    void startNode(long id, double lon, double lat) {
+        activeState = NODE;
+        lastNodeId = id;
+        lastNodeLon = lon;
+        lastNodeLat = lat;
+        extract.addNode(id, lon, lat);
+    }
+
+    /** Called at the end of a node element. */
+    void endNode() {
+        activeState = NONE;
+    }
+
+    /** Called for a <way...> element. */
+    void startWay() {
+        activeState = WAY;
+        wayNodeCount = 0;
+        wayIsValid = false;
+        wayName = null;
+        wayHighway = null;
+        wayMaxSpeed = 0;
+    }
+
+    /**
+     * Called for a <nd...> element. The way may still turn out to be invalid, so just remember
+     * the node for now.
+     * @param ref The id of the node.
+     */
+    void wayNode(long ref) {
+        if (activeState != WAY) {
+            return;
+        }
+        if (wayNodeCount == wayNodes.length) {
+            wayNodes = Arrays.copyOf(wayNodes, 2 * wayNodeCount);
+        }
+        wayNodes[wayNodeCount] = ref;
+        wayNodeCount += 1;
+    }
+
+    /**
+     * Returns whether the value of a tag with the given key matters where we are, so parsers
+     * can skip decoding it otherwise.
+     * @param key One of the KEY_ constants.
+     * @return Whether tag should be called for it.
+     */
+    boolean wantsTag(int key) {
+        if (activeState == WAY) {
+            return key != KEY_OTHER;
+        }
+        return activeState == NODE && key == KEY_NAME;
+    }
+
+    /**
+     * Called for a <tag...> element whose key wantsTag.
+     * @param key One of the KEY_ constants.
+     * @param v The value of the tag.
+     */
+    void tag(int key, String v) {
+        if (activeState == WAY) {
+            if (key == KEY_MAXSPEED) {
+                wayMaxSpeed = parseMaxSpeed(v);
+            } else if (key == KEY_HIGHWAY) {
+                wayIsValid = ALLOWED_HIGHWAY_TYPES.contains(v);
+                wayHighway = v;
+            } else if (key == KEY_NAME) {
+                wayName = v;
+            }
+        } else if (activeState == NODE && key == KEY_NAME) {
+            /* While looking at a node, we found a <tag...> with k="name". */
+            extract.addLocation(lastNodeId, lastNodeLon, lastNodeLat, v);
+        }
+    }
+
+    /**
+     * Reads the value of a maxspeed tag, e.g. "25 mph", "50" or "50 km/h". Plain numbers are in
+     * kilometers per hour, as in the rest of the world. Of several values separated by
+     * semicolons, the first one counts.
+     * @param v The value of the tag.
+     * @return The speed in miles per hour, rounded and at most MAX_SPEED, or 0 if the value is
+     * not a speed, e.g. "none" or "signals".
+     */
+    static int parseMaxSpeed(String v) {
+        String s = v.trim().toLowerCase();
+        int end = 0;
+        while (end < s.length() && (Character.isDigit(s.charAt(end)) || s.charAt(end) == '.')) {
+            end += 1;
+        }
+        double speed;
+        try {
+            speed = Double.parseDouble(s.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        String unit = s.substring(end).trim();
+        if (!unit.startsWith("mph")) {
+            speed *= MILES_PER_KILOMETER;
+        }
+        return (int) Math.min(MAX_SPEED, Math.round(speed));
+    }
+
+    /**
+     * Called at the end of a way element. If the way was valid, this is where its nodes are
+     * finally connected, at its speed limit, or at the usual speed for its type if it has none.
+     */
+    void endWay() {
+        if (wayIsValid) {
+            int speed = wayMaxSpeed > 0 ? wayMaxSpeed : DEFAULT_SPEEDS.get(wayHighway);
+            for (int i = 1; i < wayNodeCount; i += 1) {
+                extract.addEdge(wayNodes[i - 1], wayNodes[i], wayName, speed);
+            }
+        }
+        activeState = NONE;
+    }
 }
@@ -1,45 +1,172 @@
-import org.xml.sax.SAXException;
-
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
  * Uses your GraphBuildingHandler to convert the XML files into a graph. Your
  * code must include the vertices, adjacent, distance, closest, lat, and lon
- * methods. You'll also need to include instance variables and methods for
- * modifying the graph (e.g. addNode and addEdge).
+ * methods. The nodes, roads and locations found while parsing are collected in an
+ * OsmExtract, from which the graph is built.
  *
  * @author Alan Yao, Josh Hug
  */
 public class GraphDB {
-    /** Your instance variables for storing the graph. You should consider
-     * creating helper classes, e.g. Node, Edge, etc. */
+    /** Miles per degree of latitude, shrunk by 0.1% so that distanceBound stays a lower bound. */
+    private static final double MILES_PER_LAT_DEGREE = 0.999 * 3963 * Math.PI / 180;
+    static final double SECONDS_PER_HOUR = 3600;
+    /**
+     * Set this system property to true to keep only the largest connected component of the road
+     * graph, dropping the fragments (parking lots, clipped roads at the edge of the extract, ...)
+     * that no route can leave.
+     */
+    static final String LARGEST_COMPONENT_PROPERTY = "bearmaps.graph.largestComponent";
+
+    /*
+     * Named locations. These are kept apart from the road graph since most of them (shops,
+     * buildings, ...) are not on a road and would be removed by clean().
+     * The storage fields are package-private so GraphSnapshot can save and restore them.
+     */
+    long[] locationIds;
+    double[] locationLons;
+    double[] locationLats;
+    String[] locationNames;
+
+    /** Interned way names. Index 0 is the empty name used by ways without a name tag. */
+    List<String> wayNames;
 
+    /*
+     * The road graph in compressed sparse row form. Vertices are dense indices 0..n-1 in
+     * ascending order of their OSM id, so ids doubles as the id-to-index lookup table.
+     * The neighbors of vertex v are targets[offsets[v]] .. targets[offsets[v + 1] - 1];
+     * every road segment is stored once in each direction.
+     */
+    long[] ids;
+    double[] lons;
+    double[] lats;
+    int[] offsets;
+    int[] targets;
+    /** The way each edge belongs to, as an index into wayNames. */
+    int[] edgeNames;
+    /** The speed limit of each edge in miles per hour, unsigned. */
+    byte[] edgeSpeeds;
+    /** Nearest-vertex lookup over lons and lats, built by buildIndexes. */
+    SpatialIndex spatialIndex;
+    /** Prefix completion of location names, built by buildIndexes. */
+    LocationTrie locationTrie;
+    /** Location lookup by cleaned name and by word, built by buildIndexes. */
+    LocationIndex locationIndex;
+    /** The great-circle length of every edge in miles, built by buildIndexes. */
+    double[] edgeLengths;
+    /** The time to drive every edge at its speed limit in seconds, built by buildIndexes. */
+    float[] edgeTimes;
+    /** The connected component of each vertex, numbered from 0, built by buildIndexes. */
+    int[] components;
+    /** The number of vertices in each component, built by buildIndexes. */
+    int[] componentSizes;
+    /** The component with the most vertices. */
+    private int largestComponent;
+    /** Whether clean dropped every component but the largest. */
+    boolean largestComponentOnly;
+    /** The highest speed limit in the graph in miles per hour, at least 1. */
+    private int maxSpeed;
     /**
-     * Example constructor shows how to create and start an XML parser.
-     * You do not need to modify this constructor, but you're welcome to do so.
+     * Miles per degree of longitude at the latitude of the graph furthest from the equator,
+     * shrunk slightly so that distanceBound never overestimates within the graph.
+     */
+    private double milesPerLonDegree;
+    /**
+     * Built by contractionHierarchy the first time each is needed, by metric. Once set, an
+     * entry never changes, so queries read it without taking the graph's lock.
+     */
+    private final AtomicReferenceArray<ContractionHierarchy> contractionHierarchies =
+            new AtomicReferenceArray<>(Router.Metric.values().length);
+    /** Built by landmarks the first time it is needed, and never changed after. */
+    private volatile Landmarks landmarks;
+    /** The OSM file load read the graph for, where derived data can be cached; may be null. */
+    private String sourcePath;
+
+    /**
+     * Parses an OSM file, optionally gzipped, and builds the graph from it.
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
+        this(Collections.singletonList(dbPath));
+    }
+
+    /**
+     * Parses several OSM files, e.g. neighbouring regions, in parallel on the common fork-join
+     * pool and builds one graph from all of them.
+     * @param dbPaths Paths to the XML files to be parsed.
+     */
+    public GraphDB(List<String> dbPaths) {
+        this(dbPaths, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses several OSM files in parallel and builds one graph from all of them. The files are
+     * merged in list order, and a node or location that appears in more than one file keeps
+     * the data of its first appearance, so the graph does not depend on how many threads the
+     * pool has.
+     * @param dbPaths Paths to the XML files to be parsed.
+     * @param pool The pool to parse the files on.
+     */
+    GraphDB(List<String> dbPaths, ForkJoinPool pool) {
+        if (dbPaths.size() == 1) {
+            clean(OsmExtract.read(dbPaths.get(0)));
+            return;
+        }
+        List<ForkJoinTask<OsmExtract>> tasks = new ArrayList<>();
+        for (String dbPath : dbPaths) {
+            tasks.add(pool.submit(() -> OsmExtract.read(dbPath)));
+        }
+        List<OsmExtract> extracts = new ArrayList<>();
+        for (ForkJoinTask<OsmExtract> task : tasks) {
+            extracts.add(task.join());
+        }
+        clean(OsmExtract.merge(extracts));
+    }
+
+    /** Creates an empty graph, to be filled in by GraphSnapshot. */
+    GraphDB() {
+    }
+
+    /**
+     * Loads the graph for an OSM file, preferring its binary snapshot. If the snapshot is
+     * missing or stale, the XML is parsed instead and a fresh snapshot is written for next time.
+     * @param dbPath Path to the XML file to be parsed.
+     * @return The graph.
+     */
+    static GraphDB load(String dbPath) {
+        File source = new File(dbPath);
+        File snapshot = GraphSnapshot.snapshotFile(dbPath);
         try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
-
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
-            saxParser.parse(inputStream, gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+            GraphDB g = GraphSnapshot.read(snapshot, source);
+            if (g != null) {
+                g.sourcePath = dbPath;
+                return g;
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        clean();
+        GraphDB g = new GraphDB(dbPath);
+        if (source.isFile()) {
+            g.sourcePath = dbPath;
+            try {
+                GraphSnapshot.write(g, snapshot, source);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return g;
     }
 
     /**
@@ -55,9 +182,360 @@ public class GraphDB {
      *  Remove nodes with no connections from the graph.
      *  While this does not guarantee that any two nodes in the remaining graph are connected,
      *  we can reasonably assume this since typically roads are connected.
+     *  This also builds the compressed sparse row arrays from the parsed extract.
+     */
+    private void clean(OsmExtract extract) {
+        /* Sort and deduplicate the node ids; the first occurrence of an id wins. */
+        long[] nodeIds = Arrays.copyOf(extract.nodeIds, extract.nodeCount);
+        Arrays.parallelSort(nodeIds);
+        int unique = 0;
+        for (int i = 0; i < nodeIds.length; i += 1) {
+            if (unique == 0 || nodeIds[unique - 1] != nodeIds[i]) {
+                nodeIds[unique] = nodeIds[i];
+                unique += 1;
+            }
+        }
+        nodeIds = Arrays.copyOf(nodeIds, unique);
+        double[] nodeLons = new double[unique];
+        double[] nodeLats = new double[unique];
+        boolean[] seen = new boolean[unique];
+        for (int i = 0; i < extract.nodeCount; i += 1) {
+            int k = Arrays.binarySearch(nodeIds, extract.nodeIds[i]);
+            if (!seen[k]) {
+                seen[k] = true;
+                nodeLons[k] = extract.nodeLons[i];
+                nodeLats[k] = extract.nodeLats[i];
+            }
+        }
+
+        /* Resolve segment endpoints, dropping dangling references and self loops. */
+        int[] from = new int[extract.edgeCount];
+        int[] to = new int[extract.edgeCount];
+        int[] names = new int[extract.edgeCount];
+        byte[] speeds = new byte[extract.edgeCount];
+        int[] degree = new int[unique];
+        int m = 0;
+        for (int i = 0; i < extract.edgeCount; i += 1) {
+            int u = Arrays.binarySearch(nodeIds, extract.edges[2 * i]);
+            int w = Arrays.binarySearch(nodeIds, extract.edges[2 * i + 1]);
+            if (u < 0 || w < 0 || u == w) {
+                continue;
+            }
+            from[m] = u;
+            to[m] = w;
+            names[m] = extract.edgeNames[i];
+            speeds[m] = extract.edgeSpeeds[i];
+            degree[u] += 1;
+            degree[w] += 1;
+            m += 1;
+        }
+
+        /* Renumber the vertices that have at least one connection. */
+        int[] index = new int[unique];
+        int n = 0;
+        for (int k = 0; k < unique; k += 1) {
+            index[k] = degree[k] > 0 ? n++ : -1;
+        }
+        ids = new long[n];
+        lons = new double[n];
+        lats = new double[n];
+        offsets = new int[n + 1];
+        for (int k = 0; k < unique; k += 1) {
+            if (index[k] >= 0) {
+                ids[index[k]] = nodeIds[k];
+                lons[index[k]] = nodeLons[k];
+                lats[index[k]] = nodeLats[k];
+                offsets[index[k] + 1] = degree[k];
+            }
+        }
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] += offsets[v];
+        }
+        targets = new int[offsets[n]];
+        edgeNames = new int[offsets[n]];
+        edgeSpeeds = new byte[offsets[n]];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < m; i += 1) {
+            int u = index[from[i]];
+            int w = index[to[i]];
+            edgeNames[next[u]] = names[i];
+            edgeSpeeds[next[u]] = speeds[i];
+            targets[next[u]++] = w;
+            edgeNames[next[w]] = names[i];
+            edgeSpeeds[next[w]] = speeds[i];
+            targets[next[w]++] = u;
+        }
+        removeParallelEdges();
+        largestComponentOnly = Boolean.getBoolean(LARGEST_COMPONENT_PROPERTY);
+        if (largestComponentOnly) {
+            keepLargestComponent();
+        }
+
+        wayNames = new ArrayList<>(extract.wayNames);
+        locationIds = Arrays.copyOf(extract.locationIds, extract.locationCount);
+        locationLons = Arrays.copyOf(extract.locationLons, extract.locationCount);
+        locationLats = Arrays.copyOf(extract.locationLats, extract.locationCount);
+        locationNames = Arrays.copyOf(extract.locationNames, extract.locationCount);
+        buildIndexes();
+    }
+
+    /**
+     * Builds the lookup structures derived from the graph arrays. Called once the arrays are in
+     * place, whether they were built by clean or loaded from a snapshot.
+     */
+    void buildIndexes() {
+        spatialIndex = new SpatialIndex(lons, lats);
+        edgeLengths = new double[targets.length];
+        edgeTimes = new float[targets.length];
+        maxSpeed = 1;
+        double maxLat = 0;
+        for (int v = 0; v < ids.length; v += 1) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                edgeLengths[e] = distance(lons[v], lats[v], lons[targets[e]], lats[targets[e]]);
+                int speed = Math.max(1, edgeSpeeds[e] & 0xff);
+                edgeTimes[e] = (float) (edgeLengths[e] * SECONDS_PER_HOUR / speed);
+                maxSpeed = Math.max(maxSpeed, speed);
+            }
+            maxLat = Math.max(maxLat, Math.abs(lats[v]));
+        }
+        milesPerLonDegree = MILES_PER_LAT_DEGREE * Math.cos(Math.toRadians(maxLat));
+        findComponents();
+        locationTrie = new LocationTrie(locationNames);
+        locationIndex = new LocationIndex(locationIds, locationLons, locationLats, locationNames);
+    }
+
+    /**
+     * Returns the contraction hierarchy of the graph by distance, loading or building it on
+     * first use.
+     * @return The contraction hierarchy.
+     */
+    ContractionHierarchy contractionHierarchy() {
+        return contractionHierarchy(Router.Metric.DISTANCE);
+    }
+
+    /**
+     * Returns the contraction hierarchy of the graph for a metric, loading or building it on
+     * first use. Building takes a while, so for a graph that came from load, the hierarchy is
+     * saved next to the OSM file and only rebuilt when that file changes. Servers that route
+     * with it should still call this once at startup. Only the first use takes a lock.
+     * @param metric What the hierarchy's shortest paths minimize.
+     * @return The contraction hierarchy.
+     */
+    ContractionHierarchy contractionHierarchy(Router.Metric metric) {
+        ContractionHierarchy ch = contractionHierarchies.get(metric.ordinal());
+        if (ch != null) {
+            return ch;
+        }
+        synchronized (this) {
+            ch = contractionHierarchies.get(metric.ordinal());
+            if (ch == null) {
+                ch = loadContractionHierarchy(metric);
+                contractionHierarchies.set(metric.ordinal(), ch);
+            }
+            return ch;
+        }
+    }
+
+    /** Reads the contraction hierarchy for a metric from its file, or builds and saves it. */
+    private ContractionHierarchy loadContractionHierarchy(Router.Metric metric) {
+        if (sourcePath == null) {
+            return new ContractionHierarchy(this, edgeWeights(metric));
+        }
+        ContractionHierarchy ch = null;
+        File source = new File(sourcePath);
+        File file = GraphSnapshot.hierarchyFile(sourcePath, metric);
+        try {
+            ch = GraphSnapshot.readHierarchy(this, file, source);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (ch == null) {
+            ch = new ContractionHierarchy(this, edgeWeights(metric));
+            try {
+                GraphSnapshot.writeHierarchy(this, ch, file, source);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Returns the cost of every edge under a metric, by edge number. Travel times are widened
+     * to doubles for the contraction only, which drops them again once it is done.
+     */
+    private double[] edgeWeights(Router.Metric metric) {
+        if (metric == Router.Metric.DISTANCE) {
+            return edgeLengths;
+        }
+        double[] weights = new double[edgeTimes.length];
+        for (int e = 0; e < weights.length; e += 1) {
+            weights[e] = edgeTimes[e];
+        }
+        return weights;
+    }
+
+    /**
+     * Returns the landmark distance tables of the graph, computing them on first use. Only the
+     * first use takes a lock.
+     * @return The landmarks.
+     */
+    Landmarks landmarks() {
+        Landmarks result = landmarks;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            if (landmarks == null) {
+                landmarks = new Landmarks(this);
+            }
+            return landmarks;
+        }
+    }
+
+    /**
+     * Keeps only the first of several edges between the same two vertices, e.g. a boundary road
+     * that appears in two neighbouring extracts. Edges out of a vertex are in the order their
+     * segments were added, so both directions of a road keep the same segment.
+     */
+    private void removeParallelEdges() {
+        int n = ids.length;
+        int kept = 0;
+        int begin = offsets[0];
+        for (int v = 0; v < n; v += 1) {
+            int end = offsets[v + 1];
+            offsets[v] = kept;
+            int first = kept;
+            for (int e = begin; e < end; e += 1) {
+                boolean duplicate = false;
+                for (int f = first; f < kept && !duplicate; f += 1) {
+                    duplicate = targets[f] == targets[e];
+                }
+                if (!duplicate) {
+                    targets[kept] = targets[e];
+                    edgeNames[kept] = edgeNames[e];
+                    edgeSpeeds[kept] = edgeSpeeds[e];
+                    kept += 1;
+                }
+            }
+            begin = end;
+        }
+        offsets[n] = kept;
+        targets = Arrays.copyOf(targets, kept);
+        edgeNames = Arrays.copyOf(edgeNames, kept);
+        edgeSpeeds = Arrays.copyOf(edgeSpeeds, kept);
+    }
+
+    /**
+     * Labels every vertex with its connected component, using union-find with path halving and
+     * union by size over the edge arrays. Roads are stored in both directions, so the weakly
+     * and strongly connected components are the same. Components are numbered in the order of
+     * their lowest vertex.
+     */
+    private void findComponents() {
+        int n = ids.length;
+        int[] parent = new int[n];
+        int[] size = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            parent[v] = v;
+            size[v] = 1;
+        }
+        for (int v = 0; v < n; v += 1) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                int w = targets[e];
+                if (w < v) {
+                    continue;
+                }
+                int a = find(parent, v);
+                int b = find(parent, w);
+                if (a == b) {
+                    continue;
+                }
+                if (size[a] < size[b]) {
+                    int swap = a;
+                    a = b;
+                    b = swap;
+                }
+                parent[b] = a;
+                size[a] += size[b];
+            }
+        }
+
+        components = new int[n];
+        Arrays.fill(components, -1);
+        int[] sizes = new int[n];
+        int count = 0;
+        for (int v = 0; v < n; v += 1) {
+            int root = find(parent, v);
+            if (components[root] < 0) {
+                components[root] = count;
+                count += 1;
+            }
+            components[v] = components[root];
+            sizes[components[v]] += 1;
+        }
+        componentSizes = Arrays.copyOf(sizes, count);
+        largestComponent = 0;
+        for (int c = 1; c < count; c += 1) {
+            if (componentSizes[c] > componentSizes[largestComponent]) {
+                largestComponent = c;
+            }
+        }
+    }
+
+    /** Returns the root of the union-find tree that v is in, halving the path on the way. */
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /**
+     * Drops every vertex outside the largest connected component, along with its edges. The
+     * remaining vertices keep their relative order, so they stay sorted by id.
      */
-    private void clean() {
-        // TODO: Your code here.
+    private void keepLargestComponent() {
+        findComponents();
+        int n = ids.length;
+        int[] index = new int[n];
+        int kept = 0;
+        for (int v = 0; v < n; v += 1) {
+            index[v] = components[v] == largestComponent ? kept++ : -1;
+        }
+        if (kept == n) {
+            return;
+        }
+        long[] keptIds = new long[kept];
+        double[] keptLons = new double[kept];
+        double[] keptLats = new double[kept];
+        int[] keptOffsets = new int[kept + 1];
+        int m = 0;
+        for (int v = 0; v < n; v += 1) {
+            if (index[v] < 0) {
+                continue;
+            }
+            int u = index[v];
+            keptIds[u] = ids[v];
+            keptLons[u] = lons[v];
+            keptLats[u] = lats[v];
+            /* Edges never leave a component, so every edge of a kept vertex is kept. */
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                targets[m] = index[targets[e]];
+                edgeNames[m] = edgeNames[e];
+                edgeSpeeds[m] = edgeSpeeds[e];
+                m += 1;
+            }
+            keptOffsets[u + 1] = m;
+        }
+        ids = keptIds;
+        lons = keptLons;
+        lats = keptLats;
+        offsets = keptOffsets;
+        targets = Arrays.copyOf(targets, m);
+        edgeNames = Arrays.copyOf(edgeNames, m);
+        edgeSpeeds = Arrays.copyOf(edgeSpeeds, m);
     }
 
     /**
@@ -65,8 +543,7 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        //YOUR CODE HERE, this currently returns only an empty list.
-        return new ArrayList<Long>();
+        return () -> new IdIterator(0, ids.length, null);
     }
 
     /**
@@ -75,7 +552,266 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return null;
+        int i = vertexIndex(v);
+        return () -> new IdIterator(offsets[i], offsets[i + 1], targets);
+    }
+
+    /**
+     * Returns the number of vertices in the graph.
+     * @return The number of vertices.
+     */
+    int vertexCount() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of connected components of the graph.
+     * @return The number of components.
+     */
+    int componentCount() {
+        return componentSizes.length;
+    }
+
+    /**
+     * Returns the connected component of a vertex.
+     * @param v The index of the vertex.
+     * @return Its component, in 0..componentCount() - 1.
+     */
+    int component(int v) {
+        return components[v];
+    }
+
+    /**
+     * Returns whether any path joins two vertices.
+     * @param v The index of one vertex.
+     * @param w The index of the other vertex.
+     * @return True if they are in the same connected component.
+     */
+    boolean connected(int v, int w) {
+        return components[v] == components[w];
+    }
+
+    /**
+     * Describes the connected components of the graph, for the server to print at startup.
+     * @return A one-line summary.
+     */
+    String componentSummary() {
+        int n = ids.length;
+        int largest = componentSizes.length == 0 ? 0 : componentSizes[largestComponent];
+        return String.format("%d vertices in %d connected components, the largest with %d "
+                + "(%.1f%%)%s.", n, componentSizes.length, largest,
+                n == 0 ? 0 : 100.0 * largest / n,
+                largestComponentOnly ? "; the others were dropped" : "");
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given id.
+     * @param id The OSM id of the vertex.
+     * @return Its index in 0..vertexCount() - 1, or -1 if it is not in the graph.
+     */
+    int indexOf(long id) {
+        int v = Arrays.binarySearch(ids, id);
+        return v < 0 ? -1 : v;
+    }
+
+    /**
+     * Returns the OSM id of the vertex with index v.
+     * @param v The index of the vertex.
+     * @return Its OSM id.
+     */
+    long idOf(int v) {
+        return ids[v];
+    }
+
+    /**
+     * Returns the longitude of the vertex with index v.
+     * @param v The index of the vertex.
+     * @return Its longitude.
+     */
+    double lonAt(int v) {
+        return lons[v];
+    }
+
+    /**
+     * Returns the latitude of the vertex with index v.
+     * @param v The index of the vertex.
+     * @return Its latitude.
+     */
+    double latAt(int v) {
+        return lats[v];
+    }
+
+    /**
+     * Returns the number of neighbors of the vertex with index v.
+     * @param v The index of the vertex.
+     * @return Its degree.
+     */
+    int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * Returns the index of the i-th neighbor of the vertex with index v.
+     * @param v The index of the vertex.
+     * @param i Which neighbor, in 0..degree(v) - 1.
+     * @return The index of that neighbor.
+     */
+    int neighbor(int v, int i) {
+        return targets[offsets[v] + i];
+    }
+
+    /**
+     * Returns the first edge out of the vertex with index v. The edges out of v are numbered
+     * edgeBegin(v) .. edgeEnd(v) - 1, so per-edge data can be kept in parallel arrays.
+     * @param v The index of the vertex.
+     * @return The number of its first outgoing edge.
+     */
+    int edgeBegin(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * Returns one past the last edge out of the vertex with index v.
+     * @param v The index of the vertex.
+     * @return One past the number of its last outgoing edge.
+     */
+    int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /**
+     * Returns the vertex an edge leads to.
+     * @param e The number of the edge.
+     * @return The index of its target vertex.
+     */
+    int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    /**
+     * Returns the name of the way an edge belongs to.
+     * @param e The number of the edge.
+     * @return The way name, or the empty string if the way has no name.
+     */
+    String wayName(int e) {
+        return wayNames.get(edgeNames[e]);
+    }
+
+    /**
+     * Returns the edge from one vertex to another, scanning the few edges out of the first.
+     * @param v The index of the vertex the edge leaves.
+     * @param w The index of the vertex the edge leads to.
+     * @return The number of the edge, or -1 if the vertices are not adjacent.
+     */
+    int edgeBetween(int v, int w) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+            if (targets[e] == w) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index in wayNames of the name of the way an edge belongs to, so that ways can
+     * be told apart without comparing strings.
+     * @param e The number of the edge, or -1 for no edge.
+     * @return The index of the way name; 0, the empty name, for no edge.
+     */
+    int edgeNameIndex(int e) {
+        return e < 0 ? 0 : edgeNames[e];
+    }
+
+    /**
+     * Returns the length of an edge.
+     * @param e The number of the edge.
+     * @return The great-circle distance between its endpoints in miles.
+     */
+    double edgeLength(int e) {
+        return edgeLengths[e];
+    }
+
+    /**
+     * Returns the speed limit of an edge.
+     * @param e The number of the edge.
+     * @return The speed limit of its way in miles per hour.
+     */
+    int edgeSpeed(int e) {
+        return edgeSpeeds[e] & 0xff;
+    }
+
+    /**
+     * Returns the time it takes to drive an edge.
+     * @param e The number of the edge.
+     * @return The time to drive it at its speed limit in seconds.
+     */
+    double edgeTime(int e) {
+        return edgeTimes[e];
+    }
+
+    /**
+     * Returns the highest speed limit in the graph, which turns distance bounds into bounds on
+     * travel time.
+     * @return The highest speed limit in miles per hour.
+     */
+    int maxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Returns a lower bound on the great-circle distance between two vertices, for use as an
+     * A* heuristic. It measures straight-line distance on an equirectangular projection whose
+     * scale is exact at the graph's highest latitude, so it is a little short everywhere else,
+     * and it needs only one square root. Because it is a scaled Euclidean distance that never
+     * exceeds the length of an edge, it is also consistent.
+     * @param v The index of one vertex.
+     * @param w The index of the other vertex.
+     * @return A distance in miles that is at most distance(v, w).
+     */
+    double distanceBound(int v, int w) {
+        double dx = (lons[v] - lons[w]) * milesPerLonDegree;
+        double dy = (lats[v] - lats[w]) * MILES_PER_LAT_DEGREE;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /** Looks up the index of v, failing loudly if it is not a vertex. */
+    private int vertexIndex(long v) {
+        int i = Arrays.binarySearch(ids, v);
+        if (i < 0) {
+            throw new IllegalArgumentException("Vertex " + v + " is not in the graph.");
+        }
+        return i;
+    }
+
+    /**
+     * Iterates over the ids of a range of vertex indices, or of the vertices named in a range of
+     * an index array. Boxing happens here, and only here, for callers that want Longs.
+     */
+    private class IdIterator implements Iterator<Long> {
+        private int next;
+        private final int end;
+        private final int[] indices;
+
+        IdIterator(int begin, int end, int[] indices) {
+            this.next = begin;
+            this.end = end;
+            this.indices = indices;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @Override
+        public Long next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int v = indices == null ? next : indices[next];
+            next += 1;
+            return ids[v];
+        }
     }
 
     /**
@@ -117,6 +853,16 @@ public class GraphDB {
         return bearing(lon(v), lat(v), lon(w), lat(w));
     }
 
+    /**
+     * Returns the initial bearing between vertices by index, without looking up their ids.
+     * @param v The index of the first vertex.
+     * @param w The index of the second vertex.
+     * @return The initial bearing between the vertices in degrees.
+     */
+    double bearingAt(int v, int w) {
+        return bearing(lons[v], lats[v], lons[w], lats[w]);
+    }
+
     static double bearing(double lonV, double latV, double lonW, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
@@ -133,10 +879,74 @@ public class GraphDB {
      * Returns the vertex closest to the given longitude and latitude.
      * @param lon The target longitude.
      * @param lat The target latitude.
-     * @return The id of the node in the graph closest to the target.
+     * @return The id of the node in the graph closest to the target, or 0 if the graph is empty.
      */
     long closest(double lon, double lat) {
-        return 0;
+        int v = spatialIndex.nearest(lon, lat);
+        return v < 0 ? 0 : ids[v];
+    }
+
+    /**
+     * Returns the vertex closest to the given longitude and latitude by checking every vertex.
+     * This is what closest did before the spatial index, and is kept to check and benchmark it.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The id of the node in the graph closest to the target, or 0 if the graph is empty.
+     */
+    long closestByScan(double lon, double lat) {
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < ids.length; v += 1) {
+            double d = distance(lons[v], lats[v], lon, lat);
+            if (d < bestDistance) {
+                best = v;
+                bestDistance = d;
+            }
+        }
+        return best < 0 ? 0 : ids[best];
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k How many vertices to return.
+     * @return The ids of the min(k, vertexCount()) closest vertices, closest first.
+     */
+    List<Long> closest(double lon, double lat, int k) {
+        List<Long> result = new ArrayList<>();
+        for (int v : spatialIndex.nearest(lon, lat, k)) {
+            result.add(ids[v]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns every vertex within a great-circle distance of the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param miles The radius in miles.
+     * @return The ids of the vertices within the radius, in no particular order.
+     */
+    List<Long> within(double lon, double lat, double miles) {
+        List<Long> result = new ArrayList<>();
+        for (int v : spatialIndex.within(lon, lat, miles)) {
+            result.add(ids[v]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most popular location names that prefix-match a query, or, when few do, that
+     * prefix-match it allowing a typo or two.
+     * @param prefix Prefix string to be searched for. Could be any case, with or without
+     *               punctuation.
+     * @return Up to LocationTrie.DEFAULT_COMPLETIONS full names whose cleaned name starts with
+     * the cleaned prefix, or with something near it, the closest and then the names of the most
+     * locations first.
+     */
+    List<String> locationsByPrefix(String prefix) {
+        return locationTrie.search(prefix);
     }
 
     /**
@@ -145,7 +955,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return 0;
+        return lons[vertexIndex(v)];
     }
 
     /**
@@ -154,6 +964,6 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return 0;
+        return lats[vertexIndex(v)];
     }
 }
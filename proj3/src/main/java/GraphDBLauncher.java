@@ -1,16 +1,18 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class provides a main method for experimenting with GraphDB construction.
  * You could also use MapServer, but this class lets you play around with
  * GraphDB in isolation from all the rest of the parts of this assignment.
+ * Pass one or more OSM files as arguments to load those instead of the default.
  */
 public class GraphDBLauncher {
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
 
     public static void main(String[] args) {
-        GraphDB g = new GraphDB(OSM_DB_PATH);
+        GraphDB g = args.length > 0 ? new GraphDB(Arrays.asList(args)) : new GraphDB(OSM_DB_PATH);
 
         Iterable<Long> verticesIterable = g.vertices();
 
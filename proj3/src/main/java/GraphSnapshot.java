@@ -0,0 +1,417 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes binary snapshots of a built GraphDB, so that the server can start without
+ * parsing the OSM XML file again, and of its contraction hierarchy, so that it is only built
+ * once. A snapshot is only used while it matches the length and modification time of the XML
+ * file it was made from, and was made with the same GraphDB.LARGEST_COMPONENT_PROPERTY setting;
+ * otherwise it is considered stale.
+ *
+ * All numbers are little-endian. The layout is:
+ * <pre>
+ *   int magic, int version, long source length, long source last modified,
+ *   int largest component only (1 or 0),
+ *   int vertex count n, int edge count m, int way name count, int location count,
+ *   long[n] ids, double[n] lons, double[n] lats, int[n + 1] offsets,
+ *   int[m] targets, int[m] edge way names, byte[m] edge speed limits,
+ *   way names, long[] location ids, double[] location lons, double[] location lats,
+ *   location names
+ * </pre>
+ * Strings are written as an int byte length followed by their UTF-8 bytes.
+ * A contraction hierarchy is saved in a file of its own, one per Router.Metric, laid out as
+ * <pre>
+ *   int hierarchy magic, int version, long source length, long source last modified,
+ *   int vertex count n, int graph edge count, int upward edge count m,
+ *   int[n] rank, int[n + 1] upward offsets, int[m] upward targets, double[m] upward weights,
+ *   int[m] upward middles
+ * </pre>
+ * Bump VERSION whenever either layout changes.
+ */
+public class GraphSnapshot {
+    /** "BMAP" in ASCII. */
+    private static final int MAGIC = 0x424d4150;
+    static final int VERSION = 3;
+    private static final String SUFFIX = ".snapshot";
+    /** "BMCH" in ASCII. */
+    private static final int HIERARCHY_MAGIC = 0x424d4348;
+    private static final String HIERARCHY_SUFFIX = ".ch";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Returns the snapshot file that belongs to an OSM file.
+     * @param dbPath Path to the OSM XML file.
+     * @return The file its snapshot is stored in.
+     */
+    static File snapshotFile(String dbPath) {
+        return new File(dbPath + SUFFIX);
+    }
+
+    /**
+     * Returns the file the contraction hierarchy of the graph of an OSM file is stored in.
+     * @param dbPath Path to the OSM XML file.
+     * @return The file its hierarchy is stored in.
+     */
+    static File hierarchyFile(String dbPath) {
+        return hierarchyFile(dbPath, Router.Metric.DISTANCE);
+    }
+
+    /**
+     * Returns the file the contraction hierarchy for a metric of the graph of an OSM file is
+     * stored in. The one by distance keeps the name it always had.
+     * @param dbPath Path to the OSM XML file.
+     * @param metric What the hierarchy minimizes.
+     * @return The file its hierarchy is stored in.
+     */
+    static File hierarchyFile(String dbPath, Router.Metric metric) {
+        if (metric == Router.Metric.DISTANCE) {
+            return new File(dbPath + HIERARCHY_SUFFIX);
+        }
+        return new File(dbPath + "." + metric.name().toLowerCase() + HIERARCHY_SUFFIX);
+    }
+
+    /**
+     * Loads a graph from a snapshot by memory-mapping it.
+     * @param snapshot The snapshot file.
+     * @param source The OSM file the snapshot should have been made from.
+     * @return The graph, or null if the snapshot is missing, stale or unreadable.
+     * @throws IOException If the snapshot exists but could not be read.
+     */
+    static GraphDB read(File snapshot, File source) throws IOException {
+        if (!snapshot.isFile() || !source.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            boolean largestComponentOnly = Boolean.getBoolean(GraphDB.LARGEST_COMPONENT_PROPERTY);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != source.length()
+                    || buf.getLong() != source.lastModified()
+                    || buf.getInt() != flag(largestComponentOnly)) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            int nameCount = buf.getInt();
+            int locationCount = buf.getInt();
+
+            GraphDB g = new GraphDB();
+            g.largestComponentOnly = largestComponentOnly;
+            g.ids = readLongs(buf, n);
+            g.lons = readDoubles(buf, n);
+            g.lats = readDoubles(buf, n);
+            g.offsets = readInts(buf, n + 1);
+            g.targets = readInts(buf, m);
+            g.edgeNames = readInts(buf, m);
+            checkAdjacency(g.offsets, g.targets, n);
+            checkRange(g.edgeNames, 0, nameCount);
+            checkCount(buf, m, Byte.BYTES);
+            g.edgeSpeeds = new byte[m];
+            buf.get(g.edgeSpeeds);
+            /* Every name takes at least its length. */
+            checkCount(buf, nameCount, Integer.BYTES);
+            List<String> wayNames = new ArrayList<>(nameCount);
+            for (int i = 0; i < nameCount; i += 1) {
+                wayNames.add(readString(buf));
+            }
+            g.wayNames = wayNames;
+            g.locationIds = readLongs(buf, locationCount);
+            g.locationLons = readDoubles(buf, locationCount);
+            g.locationLats = readDoubles(buf, locationCount);
+            g.locationNames = new String[locationCount];
+            for (int i = 0; i < locationCount; i += 1) {
+                g.locationNames[i] = readString(buf);
+            }
+            g.buildIndexes();
+            return g;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            /* Truncated or corrupt, e.g. with a count that does not fit in the file; treat it
+             * like a stale snapshot. */
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of a graph. The snapshot is written to a temporary file first and then
+     * moved into place, so readers never see a half-written snapshot.
+     * @param g The graph to save.
+     * @param snapshot The snapshot file.
+     * @param source The OSM file the graph was built from.
+     * @throws IOException If the snapshot could not be written.
+     */
+    static void write(GraphDB g, File snapshot, File source) throws IOException {
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        try (Writer out = new Writer(FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            int n = g.ids.length;
+            int m = g.targets.length;
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(source.length());
+            out.putLong(source.lastModified());
+            out.putInt(flag(g.largestComponentOnly));
+            out.putInt(n);
+            out.putInt(m);
+            out.putInt(g.wayNames.size());
+            out.putInt(g.locationIds.length);
+
+            out.putLongs(g.ids, n);
+            out.putDoubles(g.lons, n);
+            out.putDoubles(g.lats, n);
+            out.putInts(g.offsets, n + 1);
+            out.putInts(g.targets, m);
+            out.putInts(g.edgeNames, m);
+            out.putBytes(g.edgeSpeeds, m);
+            for (String name : g.wayNames) {
+                out.putString(name);
+            }
+            out.putLongs(g.locationIds, g.locationIds.length);
+            out.putDoubles(g.locationLons, g.locationIds.length);
+            out.putDoubles(g.locationLats, g.locationIds.length);
+            for (int i = 0; i < g.locationIds.length; i += 1) {
+                out.putString(g.locationNames[i]);
+            }
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the contraction hierarchy of a graph by memory-mapping it.
+     * @param g The graph the hierarchy belongs to.
+     * @param file The hierarchy file.
+     * @param source The OSM file the graph was built from.
+     * @return The hierarchy, or null if the file is missing, stale, made for a different graph
+     * or unreadable.
+     * @throws IOException If the file exists but could not be read.
+     */
+    static ContractionHierarchy readHierarchy(GraphDB g, File file, File source)
+            throws IOException {
+        if (!file.isFile() || !source.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != HIERARCHY_MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != source.length()
+                    || buf.getLong() != source.lastModified()
+                    || buf.getInt() != g.ids.length || buf.getInt() != g.targets.length) {
+                return null;
+            }
+            int n = g.ids.length;
+            int m = buf.getInt();
+            int[] rank = readInts(buf, n);
+            int[] upOffsets = readInts(buf, n + 1);
+            int[] upTargets = readInts(buf, m);
+            double[] upWeights = readDoubles(buf, m);
+            int[] upMiddles = readInts(buf, m);
+            checkAdjacency(upOffsets, upTargets, n);
+            /* A middle of -1 marks an original edge rather than a shortcut. */
+            checkRange(upMiddles, -1, n);
+            return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights, upMiddles);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Encodes a boolean header field. */
+    private static int flag(boolean b) {
+        return b ? 1 : 0;
+    }
+
+    /**
+     * Saves the contraction hierarchy of a graph, moving it into place once it is complete.
+     * @param g The graph the hierarchy belongs to.
+     * @param ch The hierarchy to save.
+     * @param file The hierarchy file.
+     * @param source The OSM file the graph was built from.
+     * @throws IOException If the file could not be written.
+     */
+    static void writeHierarchy(GraphDB g, ContractionHierarchy ch, File file, File source)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new Writer(FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            int n = g.ids.length;
+            int m = ch.upTargets.length;
+            out.putInt(HIERARCHY_MAGIC);
+            out.putInt(VERSION);
+            out.putLong(source.length());
+            out.putLong(source.lastModified());
+            out.putInt(n);
+            out.putInt(g.targets.length);
+            out.putInt(m);
+
+            out.putInts(ch.rank, n);
+            out.putInts(ch.upOffsets, n + 1);
+            out.putInts(ch.upTargets, m);
+            out.putDoubles(ch.upWeights, m);
+            out.putInts(ch.upMiddles, m);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Checks that offsets and targets form a graph on n vertices in compressed sparse row
+     * form, so that a corrupt file cannot send a search out of bounds.
+     * @throws IllegalArgumentException If they do not.
+     */
+    private static void checkAdjacency(int[] offsets, int[] targets, int n) {
+        if (offsets[0] != 0 || offsets[n] != targets.length) {
+            throw new IllegalArgumentException("Edge offsets do not cover the edges.");
+        }
+        for (int v = 0; v < n; v += 1) {
+            if (offsets[v] > offsets[v + 1]) {
+                throw new IllegalArgumentException("Edge offsets are not ascending.");
+            }
+        }
+        checkRange(targets, 0, n);
+    }
+
+    /**
+     * Checks that every value is in lo .. hi - 1.
+     * @throws IllegalArgumentException If one is not.
+     */
+    private static void checkRange(int[] values, int lo, int hi) {
+        for (int x : values) {
+            if (x < lo || x >= hi) {
+                throw new IllegalArgumentException("Value " + x + " is out of range.");
+            }
+        }
+    }
+
+    /**
+     * Checks that the rest of a buffer can hold count elements of a size before an array of
+     * them is allocated, so that a corrupt count is not trusted with the heap.
+     * @throws BufferUnderflowException If count is negative or too big.
+     */
+    private static void checkCount(ByteBuffer buf, int count, int size) {
+        if (count < 0 || (long) count * size > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    private static long[] readLongs(ByteBuffer buf, int count) {
+        checkCount(buf, count, Long.BYTES);
+        long[] a = new long[count];
+        buf.asLongBuffer().get(a);
+        buf.position(buf.position() + Long.BYTES * count);
+        return a;
+    }
+
+    private static double[] readDoubles(ByteBuffer buf, int count) {
+        checkCount(buf, count, Double.BYTES);
+        double[] a = new double[count];
+        buf.asDoubleBuffer().get(a);
+        buf.position(buf.position() + Double.BYTES * count);
+        return a;
+    }
+
+    private static int[] readInts(ByteBuffer buf, int count) {
+        checkCount(buf, count, Integer.BYTES);
+        int[] a = new int[count];
+        buf.asIntBuffer().get(a);
+        buf.position(buf.position() + Integer.BYTES * count);
+        return a;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        checkCount(buf, length, Byte.BYTES);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Buffered little-endian writer on top of a FileChannel. */
+    private static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int x) throws IOException {
+            ensure(Integer.BYTES);
+            buf.putInt(x);
+        }
+
+        void putLong(long x) throws IOException {
+            ensure(Long.BYTES);
+            buf.putLong(x);
+        }
+
+        void putInts(int[] a, int count) throws IOException {
+            for (int i = 0; i < count; i += 1) {
+                putInt(a[i]);
+            }
+        }
+
+        void putLongs(long[] a, int count) throws IOException {
+            for (int i = 0; i < count; i += 1) {
+                putLong(a[i]);
+            }
+        }
+
+        void putBytes(byte[] a, int count) throws IOException {
+            int written = 0;
+            while (written < count) {
+                ensure(1);
+                int chunk = Math.min(buf.remaining(), count - written);
+                buf.put(a, written, chunk);
+                written += chunk;
+            }
+        }
+
+        void putDoubles(double[] a, int count) throws IOException {
+            for (int i = 0; i < count; i += 1) {
+                ensure(Double.BYTES);
+                buf.putDouble(a[i]);
+            }
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes, bytes.length);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the integers 0 .. capacity - 1, each with a double priority. Unlike
+ * java.util.PriorityQueue it stores no objects, finds an item's position in constant time,
+ * and so supports lowering an item's priority in place.
+ */
+public class IndexMinHeap {
+    /** The items, in heap order. */
+    private final int[] heap;
+    /** The position of every item in heap, or -1 if it is not in the heap. */
+    private final int[] position;
+    /** The priority of every item that is in the heap. */
+    private final double[] priority;
+    private int size;
+
+    /**
+     * Creates an empty heap.
+     * @param capacity One more than the largest item the heap will hold.
+     */
+    public IndexMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        priority = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Returns the number of items the heap can hold.
+     * @return The capacity given when the heap was created.
+     */
+    public int capacity() {
+        return heap.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns whether an item is in the heap.
+     * @param item The item.
+     * @return True if the item is in the heap.
+     */
+    public boolean contains(int item) {
+        return position[item] >= 0;
+    }
+
+    /**
+     * Adds an item, or changes its priority if it is already in the heap.
+     * @param item The item.
+     * @param p The new priority of the item.
+     */
+    public void put(int item, double p) {
+        int i = position[item];
+        if (i < 0) {
+            i = size;
+            size += 1;
+            heap[i] = item;
+            position[item] = i;
+            priority[item] = p;
+            siftUp(i);
+        } else if (p < priority[item]) {
+            priority[item] = p;
+            siftUp(i);
+        } else {
+            priority[item] = p;
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Returns the item with the smallest priority without removing it.
+     * @return The item with the smallest priority.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the smallest priority in the heap.
+     * @return The priority of peek().
+     */
+    public double peekPriority() {
+        return priority[heap[0]];
+    }
+
+    /**
+     * Removes and returns the item with the smallest priority.
+     * @return The item with the smallest priority.
+     */
+    public int poll() {
+        int top = heap[0];
+        size -= 1;
+        position[top] = -1;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /** Removes every item. Takes time proportional to the number of items in the heap. */
+    public void clear() {
+        for (int i = 0; i < size; i += 1) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int item = heap[i];
+        double p = priority[item];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priority[heap[parent]] <= p) {
+                break;
+            }
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+
+    private void siftDown(int i) {
+        int item = heap[i];
+        double p = priority[item];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && priority[heap[child + 1]] < priority[heap[child]]) {
+                child += 1;
+            }
+            if (p <= priority[heap[child]]) {
+                break;
+            }
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+}
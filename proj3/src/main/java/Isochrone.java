@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Everything reachable within a budget from one point: the vertices a bounded Dijkstra search
+ * settles, and a boundary polygon around them that is small enough to send to a browser and
+ * draw over the map.
+ *
+ * The polygon is a radial hull. The plane around the start is cut into SECTORS equal wedges,
+ * the farthest reached vertex in each wedge is kept, and the kept vertices are joined in order
+ * of angle. Unlike a convex hull it follows the dents between roads that lead out of town, and
+ * it takes one pass over the vertices, with at most SECTORS corners.
+ */
+public class Isochrone {
+    /** How many wedges the radial hull has, and so how many corners it has at most. */
+    static final int SECTORS = 72;
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /** The id of the vertex the search started from. */
+    final long start;
+    final Router.Metric metric;
+    /** The budget, in miles or seconds as the metric has it. */
+    final double budget;
+    /** The ids of the vertices within the budget, cheapest first. */
+    final long[] vertices;
+    /** The corners of the boundary polygon, counterclockwise. */
+    final double[] hullLons;
+    final double[] hullLats;
+    /** Tells this isochrone apart from every other. */
+    final long version;
+
+    /**
+     * Finds everything reachable within a budget from the vertex closest to a point.
+     * @param g The graph to use.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @param budget The most a path may cost, in miles or seconds.
+     * @param metric What the budget is of.
+     */
+    Isochrone(GraphDB g, double lon, double lat, double budget, Router.Metric metric) {
+        int s = g.indexOf(g.closest(lon, lat));
+        int[] reached = Router.reachable(g, s, budget, metric);
+        this.start = g.idOf(s);
+        this.metric = metric;
+        this.budget = budget;
+        vertices = new long[reached.length];
+        for (int i = 0; i < reached.length; i += 1) {
+            vertices[i] = g.idOf(reached[i]);
+        }
+
+        /* Squash longitudes so that distances in degrees are about right near the start. */
+        double lon0 = g.lonAt(s);
+        double lat0 = g.latAt(s);
+        double squash = Math.cos(Math.toRadians(lat0));
+        int[] farthest = new int[SECTORS];
+        double[] radius = new double[SECTORS];
+        Arrays.fill(farthest, -1);
+        for (int v : reached) {
+            double dx = (g.lonAt(v) - lon0) * squash;
+            double dy = g.latAt(v) - lat0;
+            double r = dx * dx + dy * dy;
+            int sector = (int) ((Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI) * SECTORS);
+            sector = Math.min(sector, SECTORS - 1);
+            if (r > radius[sector] || farthest[sector] < 0) {
+                radius[sector] = r;
+                farthest[sector] = v;
+            }
+        }
+        int corners = 0;
+        for (int v : farthest) {
+            if (v >= 0) {
+                corners += 1;
+            }
+        }
+        hullLons = new double[corners];
+        hullLats = new double[corners];
+        int k = 0;
+        for (int v : farthest) {
+            if (v >= 0) {
+                hullLons[k] = g.lonAt(v);
+                hullLats[k] = g.latAt(v);
+                k += 1;
+            }
+        }
+        version = VERSIONS.incrementAndGet();
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Precomputed shortest path distances from a few landmark vertices to every vertex of a
+ * GraphDB, which give A* a much better heuristic than the straight-line distance (the "ALT"
+ * algorithm: A*, landmarks and the triangle inequality). For any landmark l, the triangle
+ * inequality says that the distance from v to t is at least |d(l, t) - d(l, v)|.
+ *
+ * Landmarks are picked by farthest-point selection: each new landmark is the vertex whose
+ * distance to the nearest landmark picked so far is greatest, so they end up spread along the
+ * edges of the map, where they help the most. Distances are stored as floats, vertex by
+ * vertex, so that all the distances of one vertex share a cache line or two.
+ */
+public class Landmarks {
+    /** How many landmarks to pick. */
+    static final int DEFAULT_COUNT = 16;
+
+    private final int count;
+    /** The landmark vertices. */
+    private final int[] landmarks;
+    /** distances[v * count + i] is the distance from landmark i to vertex v, maybe infinite. */
+    private final float[] distances;
+    /** How much rounding to float can have shrunk a difference of two distances, at most. */
+    private final double slack;
+
+    /**
+     * Picks landmarks for a graph and computes their distance tables.
+     * @param g The graph.
+     */
+    public Landmarks(GraphDB g) {
+        this(g, DEFAULT_COUNT);
+    }
+
+    /**
+     * Picks landmarks for a graph and computes their distance tables.
+     * @param g The graph.
+     * @param count How many landmarks to pick.
+     */
+    Landmarks(GraphDB g, int count) {
+        int n = g.vertexCount();
+        this.count = Math.min(count, n);
+        landmarks = new int[this.count];
+        distances = new float[n * this.count];
+        SearchSpace space = new SearchSpace(n);
+
+        /*
+         * Start from the farthest vertex from the middle of the map. The middle is likelier than
+         * any given vertex to be on the main road network rather than on a little island.
+         */
+        double lon = 0;
+        double lat = 0;
+        for (int v = 0; v < n; v += 1) {
+            lon += g.lonAt(v) / n;
+            lat += g.latAt(v) / n;
+        }
+        double[] nearest = new double[n];
+        if (n > 0) {
+            dijkstra(g, g.indexOf(g.closest(lon, lat)), space);
+            for (int v = 0; v < n; v += 1) {
+                nearest[v] = space.distTo(v);
+            }
+        }
+        double maxDistance = 0;
+        for (int i = 0; i < this.count; i += 1) {
+            int landmark = farthest(nearest);
+            landmarks[i] = landmark;
+            dijkstra(g, landmark, space);
+            for (int v = 0; v < n; v += 1) {
+                double d = space.distTo(v);
+                distances[v * this.count + i] = (float) d;
+                nearest[v] = i == 0 ? d : Math.min(nearest[v], d);
+                if (d < Double.POSITIVE_INFINITY) {
+                    maxDistance = Math.max(maxDistance, d);
+                }
+            }
+        }
+        /* Each of the two floats in a difference is off by at most half an ulp. */
+        slack = Math.ulp((float) maxDistance);
+    }
+
+    /** Returns the vertex with the greatest finite distance, or 0 if there is none. */
+    private static int farthest(double[] distance) {
+        int best = 0;
+        for (int v = 0; v < distance.length; v += 1) {
+            if (distance[v] < Double.POSITIVE_INFINITY && distance[v] > distance[best]) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Runs Dijkstra's algorithm from s over the whole graph. */
+    private static void dijkstra(GraphDB g, int s, SearchSpace space) {
+        space.reset();
+        space.reach(s, 0, -1);
+        space.queue.put(s, 0);
+        while (!space.queue.isEmpty()) {
+            int v = space.queue.poll();
+            double dv = space.distTo(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = dv + g.edgeLength(e);
+                if (d < space.distTo(w)) {
+                    space.reach(w, d, v);
+                    space.queue.put(w, d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a lower bound on the distance between two vertices.
+     * @param v The index of one vertex.
+     * @param t The index of the other vertex.
+     * @return A distance in miles that is at most the shortest path distance from v to t.
+     */
+    double distanceBound(int v, int t) {
+        int vi = v * count;
+        int ti = t * count;
+        double bound = 0;
+        for (int i = 0; i < count; i += 1) {
+            float dv = distances[vi + i];
+            float dt = distances[ti + i];
+            /* A landmark that cannot reach one of them says nothing; skip it. */
+            if (dv != Float.POSITIVE_INFINITY && dt != Float.POSITIVE_INFINITY) {
+                bound = Math.max(bound, Math.abs((double) dt - dv));
+            }
+        }
+        return Math.max(0, bound - slack);
+    }
+}
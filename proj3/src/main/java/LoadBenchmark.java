@@ -0,0 +1,159 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates mixed load on RequestExecutor from many client threads at once and reports the
+ * throughput and tail latency of each kind of request, with every request on one shared pool
+ * of threads, as Jetty runs them, and with heavy and light requests on their own bounded pools.
+ * Heavy requests PNG encode a raster sized image, as /raster does on a miss; light requests
+ * raster a random query box, which is about as much work as /search or a cached /route.
+ * Clients that are turned away wait a moment and try again, as a client would on HTTP 429.
+ * Pass the number of client threads, the seconds to run each setup for and the percentage of
+ * heavy requests as arguments if you like.
+ */
+public class LoadBenchmark {
+    private static final int DEFAULT_CLIENTS = 32;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int DEFAULT_HEAVY_PERCENT = 20;
+    /** The threads of the shared pool, as many as Jetty gives Spark by default. */
+    private static final int SHARED_THREADS = 8;
+    private static final int RETRY_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+        int heavyPercent = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_HEAVY_PERCENT;
+        BufferedImage img = new BufferedImage(4 * MapServer.TILE_SIZE, 3 * MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < img.getHeight(); y += 1) {
+            for (int x = 0; x < img.getWidth(); x += 1) {
+                /* Mostly flat, like a map, with some detail for the encoder to work on. */
+                img.setRGB(x, y, random.nextInt(8) == 0 ? random.nextInt() : 0xf0ece4);
+            }
+        }
+        System.out.println(clients + " clients, " + seconds + " s per setup, " + heavyPercent
+                + "% heavy requests, " + Runtime.getRuntime().availableProcessors() + " cores.");
+        System.out.println("Setup        Kind     requests/s   p50 ms   p99 ms   max ms   429s");
+        run("shared pool", new RequestExecutor(SHARED_THREADS, 1 << 16, 1, 1), false, img,
+                clients, seconds, heavyPercent);
+        run("split pools", new RequestExecutor(), true, img, clients, seconds, heavyPercent);
+    }
+
+    private static void run(String setup, RequestExecutor executor, boolean split,
+                            BufferedImage img, int clients, int seconds, int heavyPercent)
+            throws InterruptedException {
+        Rasterer rasterer = new Rasterer();
+        long end = System.nanoTime() + seconds * 1000000000L;
+        List<List<Long>> heavyLatencies = new ArrayList<>();
+        List<List<Long>> lightLatencies = new ArrayList<>();
+        long[] rejections = new long[2];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i += 1) {
+            List<Long> heavy = new ArrayList<>();
+            List<Long> light = new ArrayList<>();
+            heavyLatencies.add(heavy);
+            lightLatencies.add(light);
+            Random random = new Random(i);
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    boolean isHeavy = random.nextInt(100) < heavyPercent;
+                    RequestExecutor.Kind kind = split && !isHeavy
+                            ? RequestExecutor.Kind.LIGHT : RequestExecutor.Kind.HEAVY;
+                    long start = System.nanoTime();
+                    try {
+                        if (isHeavy) {
+                            executor.run(kind, () -> encode(img));
+                        } else {
+                            executor.run(kind, () -> rasterer.getMapRaster(query(random)));
+                        }
+                        (isHeavy ? heavy : light).add(System.nanoTime() - start);
+                    } catch (RejectedExecutionException e) {
+                        synchronized (rejections) {
+                            rejections[isHeavy ? 0 : 1] += 1;
+                        }
+                        sleep(RETRY_MILLIS);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        executor.shutdown();
+        report(setup, "heavy", heavyLatencies, rejections[0], seconds);
+        report(setup, "light", lightLatencies, rejections[1], seconds);
+    }
+
+    private static int encode(BufferedImage img) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", os);
+        return os.size();
+    }
+
+    /** Returns a random query box of about a screenful somewhere on the map. */
+    private static Map<String, Double> query(Random random) {
+        double width = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON) / (1 << random.nextInt(6));
+        double ullon = MapServer.ROOT_ULLON + random.nextDouble() * width;
+        double ullat = MapServer.ROOT_ULLAT - random.nextDouble() * width;
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", ullon + width / 2);
+        params.put("lrlat", ullat - width / 2);
+        params.put("w", 1000.0);
+        params.put("h", 800.0);
+        return params;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void report(String setup, String kind, List<List<Long>> perClient,
+                               long rejections, int seconds) {
+        int count = 0;
+        for (List<Long> latencies : perClient) {
+            count += latencies.size();
+        }
+        long[] all = new long[count];
+        int i = 0;
+        for (List<Long> latencies : perClient) {
+            for (long latency : latencies) {
+                all[i] = latency;
+                i += 1;
+            }
+        }
+        Arrays.sort(all);
+        System.out.printf("%-12s %-6s %12.1f %8.2f %8.2f %8.2f %6d%n", setup, kind,
+                (double) count / seconds, percentile(all, 0.5), percentile(all, 0.99),
+                percentile(all, 1), rejections);
+    }
+
+    /** Returns a percentile of sorted latencies in nanoseconds, in milliseconds. */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, p * sorted.length)] / 1e6;
+    }
+}
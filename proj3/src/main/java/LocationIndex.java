@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up locations by their cleaned names. Locations are sorted by cleaned name, and each
+ * one's id, latitude and longitude are packed side by side in one long[], so the locations of
+ * a name are a single run of the array: found with one hash lookup, then read straight through.
+ * Lookups return positions in that order, and nothing is allocated per location until a caller
+ * asks for its fields.
+ *
+ * There is also a token index, from each word of the cleaned names to the sorted positions of
+ * the locations whose names contain it, so that a query like "peets coffee" can find
+ * "Peet's Coffee & Tea" by intersecting the posting lists of its words.
+ */
+public class LocationIndex {
+    /** The longs per location in postings: id, latitude bits, longitude bits. */
+    private static final int STRIDE = 3;
+    private static final int[] NONE = new int[0];
+
+    /** Where the run of each cleaned name starts, and where it ends. */
+    private final Map<String, int[]> runs = new HashMap<>();
+    /** The positions of the locations whose cleaned name contains each word, ascending. */
+    private final Map<String, int[]> tokens = new HashMap<>();
+    private final long[] postings;
+    private final String[] names;
+
+    /**
+     * Builds the index.
+     * @param ids The ids of the locations.
+     * @param lons Their longitudes.
+     * @param lats Their latitudes.
+     * @param locationNames Their full names.
+     */
+    public LocationIndex(long[] ids, double[] lons, double[] lats, String[] locationNames) {
+        int n = ids.length;
+        String[] keys = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = GraphDB.cleanString(locationNames[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byKey = keys[a].compareTo(keys[b]);
+            return byKey != 0 ? byKey : Long.compare(ids[a], ids[b]);
+        });
+
+        postings = new long[STRIDE * n];
+        names = new String[n];
+        Map<String, List<Integer>> tokenLists = new HashMap<>();
+        for (int p = 0; p < n; p += 1) {
+            int i = order[p];
+            postings[STRIDE * p] = ids[i];
+            postings[STRIDE * p + 1] = Double.doubleToRawLongBits(lats[i]);
+            postings[STRIDE * p + 2] = Double.doubleToRawLongBits(lons[i]);
+            names[p] = locationNames[i];
+            if (p == 0 || !keys[i].equals(keys[order[p - 1]])) {
+                runs.put(keys[i], new int[] {p, p + 1});
+            } else {
+                runs.get(keys[i])[1] = p + 1;
+            }
+            for (String token : tokenize(keys[i])) {
+                List<Integer> list = tokenLists.computeIfAbsent(token, t -> new ArrayList<>());
+                /* A word can appear twice in a name; positions only grow, so check the last. */
+                if (list.isEmpty() || list.get(list.size() - 1) != p) {
+                    list.add(p);
+                }
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : tokenLists.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] positions = new int[list.size()];
+            for (int k = 0; k < positions.length; k += 1) {
+                positions[k] = list.get(k);
+            }
+            tokens.put(entry.getKey(), positions);
+        }
+    }
+
+    /** Returns the distinct non-empty words of a cleaned string. */
+    private static String[] tokenize(String key) {
+        String trimmed = key.trim();
+        if (trimmed.isEmpty()) {
+            return new String[0];
+        }
+        return Arrays.stream(trimmed.split(" +")).distinct().toArray(String[]::new);
+    }
+
+    /**
+     * Returns the locations whose cleaned name is the cleaned query.
+     * @param locationName A full name of a location searched for.
+     * @return The positions of the matching locations, ordered by id.
+     */
+    int[] lookup(String locationName) {
+        int[] run = runs.get(GraphDB.cleanString(locationName));
+        if (run == null) {
+            return NONE;
+        }
+        int[] positions = new int[run[1] - run[0]];
+        for (int k = 0; k < positions.length; k += 1) {
+            positions[k] = run[0] + k;
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the locations whose cleaned name contains every word of the cleaned query.
+     * @param query Words to search for, in any order.
+     * @return The positions of the matching locations, in ascending order.
+     */
+    int[] lookupTokens(String query) {
+        String[] words = tokenize(GraphDB.cleanString(query));
+        if (words.length == 0) {
+            return NONE;
+        }
+        int[][] lists = new int[words.length][];
+        for (int w = 0; w < words.length; w += 1) {
+            lists[w] = tokens.get(words[w]);
+            if (lists[w] == null) {
+                return NONE;
+            }
+        }
+        /* Intersect the shortest lists first, so the running result shrinks fastest. */
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists[0];
+        for (int w = 1; w < lists.length && result.length > 0; w += 1) {
+            result = intersect(result, lists[w]);
+        }
+        return result == lists[0] ? result.clone() : result;
+    }
+
+    /**
+     * Intersects a short sorted list with a long one by galloping through the long one, which
+     * takes time proportional to the short one's length times the log of the long one's.
+     */
+    private static int[] intersect(int[] small, int[] large) {
+        int[] result = new int[small.length];
+        int count = 0;
+        int from = 0;
+        for (int x : small) {
+            int step = 1;
+            int to = from;
+            while (to < large.length && large[to] < x) {
+                from = to + 1;
+                to += step;
+                step *= 2;
+            }
+            int k = Arrays.binarySearch(large, from, Math.min(to + 1, large.length), x);
+            if (k >= 0) {
+                result[count] = x;
+                count += 1;
+                from = k + 1;
+            } else {
+                from = -k - 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Returns the id of the location at a position. */
+    long id(int p) {
+        return postings[STRIDE * p];
+    }
+
+    /** Returns the latitude of the location at a position. */
+    double lat(int p) {
+        return Double.longBitsToDouble(postings[STRIDE * p + 1]);
+    }
+
+    /** Returns the longitude of the location at a position. */
+    double lon(int p) {
+        return Double.longBitsToDouble(postings[STRIDE * p + 2]);
+    }
+
+    /** Returns the full name of the location at a position. */
+    String name(int p) {
+        return names[p];
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Prefix autocompletion of location names with a ternary search tree over their cleaned forms.
+ * Every node of the tree keeps the few most popular names that complete the prefix it spells,
+ * so a query walks down the prefix and reads off its answer without looking at anything else.
+ *
+ * Names are ranked by how many locations have them, then alphabetically, so that chains with
+ * many branches come first. The tree is stored as parallel arrays, and its completion lists in
+ * one flat array, which keeps it to a few int arrays however many names there are.
+ *
+ * Prefixes with typos are completed by walking the tree with a Levenshtein automaton: each node
+ * gets the row of edit distances between the query and the path to it, computed from its
+ * parent's row, and the walk stops below any node whose row has nothing left within the bound.
+ * So only the few paths near the query are looked at, not every name.
+ */
+public class LocationTrie {
+    /** How many completions to keep for every prefix by default. */
+    static final int DEFAULT_COMPLETIONS = 10;
+
+    /** Distinct full names, most popular first. */
+    final String[] names;
+    /** The cleaned form of each name. */
+    final String[] keys;
+    private final int completions;
+
+    /* The tree. Node 0 is the root; -1 means no child. */
+    char[] chars;
+    int[] lo;
+    int[] eq;
+    int[] hi;
+    private int nodeCount;
+    /** The names, by rank, completing the prefix spelled by a node: topStart[v] .. [v + 1]. */
+    private int[] topStart;
+    private int[] top;
+    /** The names, by rank, whose key ends at a node: endStart[v] .. endStart[v + 1]. */
+    private int[] endStart;
+    private int[] ends;
+    /** The most popular names overall, for an empty prefix. */
+    private int[] rootTop;
+    /** The length of the longest key. */
+    private int maxKeyLength;
+
+    /**
+     * Builds the tree.
+     * @param locationNames The name of every location; a name may appear many times.
+     */
+    public LocationTrie(String[] locationNames) {
+        this(locationNames, DEFAULT_COMPLETIONS);
+    }
+
+    /**
+     * Builds the tree.
+     * @param locationNames The name of every location; a name may appear many times.
+     * @param completions How many completions to keep for every prefix.
+     */
+    LocationTrie(String[] locationNames, int completions) {
+        this.completions = completions;
+        Map<String, Integer> counts = new HashMap<>();
+        for (String name : locationNames) {
+            counts.merge(name, 1, Integer::sum);
+        }
+        names = counts.keySet().toArray(new String[0]);
+        Arrays.sort(names, (a, b) -> {
+            int byCount = Integer.compare(counts.get(b), counts.get(a));
+            return byCount != 0 ? byCount : a.compareTo(b);
+        });
+        keys = new String[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            keys[i] = GraphDB.cleanString(names[i]);
+            maxKeyLength = Math.max(maxKeyLength, keys[i].length());
+        }
+
+        /* Insert keys in an order that keeps the lo and hi links balanced: middle key first. */
+        Integer[] byKey = new Integer[names.length];
+        for (int i = 0; i < byKey.length; i += 1) {
+            byKey[i] = i;
+        }
+        Arrays.sort(byKey, (a, b) -> keys[a].compareTo(keys[b]));
+        int capacity = 16;
+        chars = new char[capacity];
+        lo = new int[capacity];
+        eq = new int[capacity];
+        hi = new int[capacity];
+        List<List<Integer>> endLists = new ArrayList<>();
+        List<Integer> rootEnds = new ArrayList<>();
+        insertBalanced(byKey, 0, byKey.length, endLists, rootEnds);
+
+        /* Flatten the names ending at each node; names that clean to "" are in rootEnds. */
+        endStart = new int[nodeCount + 1];
+        ends = new int[names.length];
+        int k = 0;
+        for (int v = 0; v < nodeCount; v += 1) {
+            endStart[v] = k;
+            List<Integer> list = endLists.get(v);
+            Collections.sort(list);
+            for (int rank : list) {
+                ends[k] = rank;
+                k += 1;
+            }
+        }
+        endStart[nodeCount] = k;
+        ends = Arrays.copyOf(ends, k);
+
+        topStart = new int[nodeCount + 1];
+        int[][] prefixTop = new int[nodeCount][];
+        int[] all = nodeCount > 0 ? subtreeTop(0, prefixTop) : new int[0];
+        Collections.sort(rootEnds);
+        int[] empty = new int[rootEnds.size()];
+        for (int i = 0; i < empty.length; i += 1) {
+            empty[i] = rootEnds.get(i);
+        }
+        rootTop = merge(empty, all);
+        int size = 0;
+        for (int v = 0; v < nodeCount; v += 1) {
+            topStart[v] = size;
+            size += prefixTop[v].length;
+        }
+        topStart[nodeCount] = size;
+        top = new int[size];
+        for (int v = 0; v < nodeCount; v += 1) {
+            System.arraycopy(prefixTop[v], 0, top, topStart[v], prefixTop[v].length);
+        }
+        chars = Arrays.copyOf(chars, nodeCount);
+        lo = Arrays.copyOf(lo, nodeCount);
+        eq = Arrays.copyOf(eq, nodeCount);
+        hi = Arrays.copyOf(hi, nodeCount);
+    }
+
+    private void insertBalanced(Integer[] byKey, int from, int to, List<List<Integer>> endLists,
+                                List<Integer> rootEnds) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        insert(byKey[mid], endLists, rootEnds);
+        insertBalanced(byKey, from, mid, endLists, rootEnds);
+        insertBalanced(byKey, mid + 1, to, endLists, rootEnds);
+    }
+
+    private void insert(int rank, List<List<Integer>> endLists, List<Integer> rootEnds) {
+        String key = keys[rank];
+        if (key.isEmpty()) {
+            rootEnds.add(rank);
+            return;
+        }
+        if (nodeCount == 0) {
+            newNode(key.charAt(0), endLists);
+        }
+        int v = 0;
+        int d = 0;
+        while (true) {
+            char c = key.charAt(d);
+            if (c < chars[v]) {
+                if (lo[v] < 0) {
+                    /* newNode may grow the arrays, so call it before indexing them. */
+                    int u = newNode(c, endLists);
+                    lo[v] = u;
+                }
+                v = lo[v];
+            } else if (c > chars[v]) {
+                if (hi[v] < 0) {
+                    int u = newNode(c, endLists);
+                    hi[v] = u;
+                }
+                v = hi[v];
+            } else if (d + 1 < key.length()) {
+                d += 1;
+                if (eq[v] < 0) {
+                    int u = newNode(key.charAt(d), endLists);
+                    eq[v] = u;
+                }
+                v = eq[v];
+            } else {
+                endLists.get(v).add(rank);
+                return;
+            }
+        }
+    }
+
+    private int newNode(char c, List<List<Integer>> endLists) {
+        if (nodeCount == chars.length) {
+            int capacity = 2 * chars.length;
+            chars = Arrays.copyOf(chars, capacity);
+            lo = Arrays.copyOf(lo, capacity);
+            eq = Arrays.copyOf(eq, capacity);
+            hi = Arrays.copyOf(hi, capacity);
+        }
+        chars[nodeCount] = c;
+        lo[nodeCount] = -1;
+        eq[nodeCount] = -1;
+        hi[nodeCount] = -1;
+        endLists.add(new ArrayList<>());
+        nodeCount += 1;
+        return nodeCount - 1;
+    }
+
+    /**
+     * Fills in prefixTop for a subtree and returns the best ranks among all of its keys,
+     * including those of the lo and hi links, which spell other prefixes.
+     */
+    private int[] subtreeTop(int v, int[][] prefixTop) {
+        int[] own = Arrays.copyOfRange(ends, endStart[v], endStart[v + 1]);
+        int[] below = eq[v] >= 0 ? subtreeTop(eq[v], prefixTop) : new int[0];
+        prefixTop[v] = merge(own, below);
+        int[] result = prefixTop[v];
+        if (lo[v] >= 0) {
+            result = merge(result, subtreeTop(lo[v], prefixTop));
+        }
+        if (hi[v] >= 0) {
+            result = merge(result, subtreeTop(hi[v], prefixTop));
+        }
+        return result;
+    }
+
+    /** Merges two sorted arrays of distinct ranks, keeping the first few. */
+    private int[] merge(int[] a, int[] b) {
+        int[] result = new int[Math.min(completions, a.length + b.length)];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < result.length; k += 1) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                result[k] = a[i];
+                i += 1;
+            } else {
+                result[k] = b[j];
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the node whose path spells a key, or -1 if no key starts with it.
+     * @param key A cleaned, non-empty string.
+     */
+    int find(String key) {
+        int v = nodeCount > 0 ? 0 : -1;
+        int d = 0;
+        while (v >= 0) {
+            char c = key.charAt(d);
+            if (c < chars[v]) {
+                v = lo[v];
+            } else if (c > chars[v]) {
+                v = hi[v];
+            } else if (d + 1 < key.length()) {
+                d += 1;
+                v = eq[v];
+            } else {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the most popular names whose cleaned form starts with the cleaned prefix.
+     * @param prefix Prefix string to be searched for. Could be any case, with or without
+     *               punctuation.
+     * @return Up to the configured number of full names, most popular first.
+     */
+    List<String> complete(String prefix) {
+        String key = GraphDB.cleanString(prefix);
+        if (key.isEmpty()) {
+            return toNames(rootTop, 0, rootTop.length);
+        }
+        int v = find(key);
+        if (v < 0) {
+            return new ArrayList<>();
+        }
+        return toNames(top, topStart[v], topStart[v + 1]);
+    }
+
+    /**
+     * Returns the completions of a prefix, falling back on the completions of near misses of it
+     * when it has fewer than the configured number, as a typo often leaves it with none.
+     * Completions of the prefix itself are at distance 0, so they still come first.
+     * @param prefix Prefix string to be searched for. Could be any case, with or without
+     *               punctuation.
+     */
+    List<String> search(String prefix) {
+        List<String> exact = complete(prefix);
+        if (exact.size() == completions) {
+            return exact;
+        }
+        int maxDistance = typoBound(GraphDB.cleanString(prefix).length());
+        return maxDistance == 0 ? exact : completeFuzzy(prefix, maxDistance);
+    }
+
+    /**
+     * Returns how many typos to forgive in a cleaned prefix: none in very short ones, which
+     * would match nearly everything otherwise, and at most two.
+     * @param length The length of the cleaned prefix.
+     */
+    static int typoBound(int length) {
+        return length < 4 ? 0 : length < 8 ? 1 : 2;
+    }
+
+    /**
+     * Returns the names whose cleaned form starts with something within an edit distance of
+     * the cleaned prefix: the closest first, and the most popular first among equally close.
+     * @param prefix Prefix string to be searched for. Could be any case, with or without
+     *               punctuation.
+     * @param maxDistance How many insertions, deletions and substitutions to allow.
+     * @return Up to the configured number of full names.
+     */
+    List<String> completeFuzzy(String prefix, int maxDistance) {
+        String key = GraphDB.cleanString(prefix);
+        int m = key.length();
+        if (nodeCount == 0) {
+            return toNames(rootTop, 0, rootTop.length);
+        }
+        /* rows[d] is the automaton's row after the first d characters of a path. */
+        int[][] rows = new int[maxKeyLength + 1][m + 1];
+        for (int j = 0; j <= m; j += 1) {
+            rows[0][j] = j;
+        }
+        Map<Integer, Integer> distances = new HashMap<>();
+        if (m <= maxDistance) {
+            /* Deleting the whole key matches every name, at a distance of its length. */
+            for (int rank : rootTop) {
+                distances.put(rank, m);
+            }
+        }
+        fuzzy(0, 1, key, maxDistance, rows, distances);
+
+        TreeSet<Integer> best = new TreeSet<>((a, b) -> {
+            int byDistance = Integer.compare(distances.get(a), distances.get(b));
+            return byDistance != 0 ? byDistance : Integer.compare(a, b);
+        });
+        best.addAll(distances.keySet());
+        List<String> result = new ArrayList<>();
+        for (int rank : best) {
+            if (result.size() == completions) {
+                break;
+            }
+            result.add(names[rank]);
+        }
+        return result;
+    }
+
+    /**
+     * Visits a node, its lo and hi links, which continue the same path, and, while the path can
+     * still come within maxDistance of the key, its eq link.
+     * @param depth The length of the path to the node, counting its own character.
+     */
+    private void fuzzy(int v, int depth, String key, int maxDistance, int[][] rows,
+                       Map<Integer, Integer> distances) {
+        while (v >= 0) {
+            if (lo[v] >= 0) {
+                fuzzy(lo[v], depth, key, maxDistance, rows, distances);
+            }
+            int[] previous = rows[depth - 1];
+            int[] row = rows[depth];
+            row[0] = depth;
+            int min = row[0];
+            for (int j = 1; j < row.length; j += 1) {
+                int cost = key.charAt(j - 1) == chars[v] ? 0 : 1;
+                row[j] = Math.min(Math.min(row[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+                min = Math.min(min, row[j]);
+            }
+            int distance = row[row.length - 1];
+            if (distance <= maxDistance) {
+                /* The whole key is matched: every completion of this path is a candidate. */
+                for (int i = topStart[v]; i < topStart[v + 1]; i += 1) {
+                    distances.merge(top[i], distance, Math::min);
+                }
+            }
+            /* Going deeper can only help if some prefix of the key is matched more closely. */
+            if (eq[v] >= 0 && min <= maxDistance && min < distance) {
+                fuzzy(eq[v], depth + 1, key, maxDistance, rows, distances);
+            }
+            v = hi[v];
+        }
+    }
+
+    /** Returns the names of a range of ranks in an array. */
+    List<String> toNames(int[] ranks, int from, int to) {
+        List<String> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i += 1) {
+            result.add(names[ranks[i]]);
+        }
+        return result;
+    }
+
+    /** Returns how many nodes the tree has. */
+    int size() {
+        return nodeCount;
+    }
+}
@@ -3,20 +3,21 @@ import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.util.Base64;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 import java.io.IOException;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 
 import static spark.Spark.*;
 
@@ -44,6 +45,10 @@ public class MapServer {
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /** Isochrone fill: a light orange that the tiles show through. */
+    public static final Color ISOCHRONE_FILL_COLOR = new Color(255, 160, 60, 70);
+    /** Isochrone outline: the same orange, more opaque. */
+    public static final Color ISOCHRONE_STROKE_COLOR = new Color(230, 120, 20, 180);
     /** The tile images are in the IMG_ROOT folder. */
     private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
     /**
@@ -70,6 +75,24 @@ public class MapServer {
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
 
+    /**
+     * Each matrix request to the server will have the following parameters, lists of points
+     * written as lon,lat pairs separated by semicolons:<br>
+     * sources : the start points, one per row of the matrix,<br>
+     * targets : the end points, one per column of the matrix.<br>
+     * It may also name the metric to use, distance or time, with the metric parameter.
+     **/
+    private static final String[] REQUIRED_MATRIX_REQUEST_PARAMS = {"sources", "targets"};
+    /** The most sources, and the most targets, one matrix request may have. */
+    private static final int MAX_MATRIX_POINTS = 100;
+    /**
+     * Each isochrone request to the server will have the following parameters:<br>
+     * lon : longitude of the point to start from,<br> lat : latitude of that point,<br>
+     * and either miles, to reach everything within that distance along roads, or minutes, to
+     * reach everything within that time driving at the speed limits.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat"};
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for getMapRaster in Rasterer.java.
@@ -79,7 +102,23 @@ public class MapServer {
 
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /**
+     * Each request may name the user it is for with this parameter, otherwise the user's HTTP
+     * session is used.
+     **/
+    private static final String SESSION_TOKEN_PARAM = "token";
+    /** The current route of each user, so that concurrent users do not share one. */
+    private static final RouteSessions ROUTES = new RouteSessions();
+    /** Decoded tile images, so that panning does not touch the disk. */
+    private static final TileCache TILES = new TileCache(IMG_ROOT);
+    /** Finished raster images, by tile range and route. */
+    private static final RasterCache RASTERS = new RasterCache();
+    /** Puts tiles together and encodes them, in the format set by the system properties. */
+    private static final RasterRenderer RENDERER = new RasterRenderer(TILES);
+    /** Runs the work of requests on bounded pools, keeping raster work from crowding out. */
+    private static final RequestExecutor EXECUTOR = new RequestExecutor();
+    /** Routes recently asked for, by the vertices their endpoints snap to. */
+    private static final RouteCache ROUTE_CACHE = new RouteCache();
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,8 +128,17 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = GraphDB.load(OSM_DB_PATH);
+        System.out.println(graph.componentSummary());
+        Router.configure(graph);
+        ROUTE_CACHE.clear();
+        ROUTES.clear();
+        RASTERS.clear();
         rasterer = new Rasterer();
+        int warmUpDepth = TileCache.warmUpDepthProperty();
+        if (warmUpDepth > 0) {
+            TILES.warmUp(warmUpDepth);
+        }
     }
 
     public static void main(String[] args) {
@@ -104,65 +152,154 @@ public class MapServer {
             response.header("Access-Control-Allow-Headers", "*");
         });
 
+        /* Turn requests away, rather than queue them without end, when the server is busy. */
+        exception(RejectedExecutionException.class, (e, req, res) -> {
+            res.status(RequestExecutor.TOO_MANY_REQUESTS);
+            res.header("Retry-After", "1");
+            res.body("Too many requests - try again shortly.");
+        });
+
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
-        get("/raster", (req, res) -> {
+        get("/raster", on(RequestExecutor.Kind.HEAVY, (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
             /* getMapRaster() does almost all the work for this API call */
             Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
-            if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+            if (!rasterSuccess) {
+                /* Encode response to Json */
+                Gson gson = new Gson();
+                return gson.toJson(rasteredImgParams);
             }
-
-            /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
-        });
-
-        /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
+            /* Stream the Json, Base64 encoding the image on the way out. */
+            RasterCache.Raster raster = getRaster(req, rasteredImgParams);
+            res.type("application/json");
+            RasterRenderer.writeJson(rasteredImgParams, raster.image, res.raw().getOutputStream());
+            return "";
+        }));
+
+        /* Define an endpoint that sends the raster image itself, with the rest of the results
+         * as headers, so that neither side has to Base64 encode or decode it. */
+        get("/raster.png", on(RequestExecutor.Kind.HEAVY, (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            if (!validateRasteredImgParams(rasteredImgParams)) {
+                halt(HALT_RESPONSE, "Rastering failed.");
+            }
+            RasterCache.Raster raster = getRaster(req, rasteredImgParams);
+            for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
+                if (!p.equals("render_grid")) {
+                    res.header("X-" + p, String.valueOf(rasteredImgParams.get(p)));
+                }
+            }
+            res.header("X-raster_width", String.valueOf(raster.width));
+            res.header("X-raster_height", String.valueOf(raster.height));
+            res.type("image/" + RENDERER.format().imageType());
+            res.raw().setContentLength(raster.image.length);
+            res.raw().getOutputStream().write(raster.image);
+            return "";
+        }));
+
+        /* Define the routing endpoint for HTTP GET requests. A route that is not cached takes a
+         * search of the graph, so it counts as heavy work. */
+        get("/route", on(RequestExecutor.Kind.HEAVY, (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            RouteCache.Route cached = ROUTE_CACHE.route(graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"));
+            ROUTES.setRoute(sessionKey(req), cached, System.currentTimeMillis());
+            String directionsText = getDirectionsText(cached.directions);
             Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
-            routeParams.put("directions_success", directions.length() > 0);
-            routeParams.put("directions", directions);
+            routeParams.put("routing_success", !cached.path.isEmpty());
+            routeParams.put("directions_success", directionsText.length() > 0);
+            routeParams.put("directions", directionsText);
             Gson gson = new Gson();
             return gson.toJson(routeParams);
-        });
+        }));
+
+        /* Define the endpoint for the costs of the shortest paths between many points. Each
+         * source takes a search of its own, so it counts as heavy work, and all of the searches
+         * run on the request's heavy thread so that the heavy pool bounds them. */
+        get("/matrix", on(RequestExecutor.Kind.HEAVY, (req, res) -> {
+            for (String param : REQUIRED_MATRIX_REQUEST_PARAMS) {
+                if (req.queryParams(param) == null) {
+                    halt(HALT_RESPONSE, "Request failed - parameters missing.");
+                }
+            }
+            int[] sources = getMatrixPoints(req.queryParams("sources"));
+            int[] targets = getMatrixPoints(req.queryParams("targets"));
+            Router.Metric metric = Router.metric();
+            String metricName = req.queryParams("metric");
+            if (metricName != null) {
+                try {
+                    metric = Router.Metric.valueOf(metricName.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    halt(HALT_RESPONSE, "Unknown metric - use distance or time.");
+                }
+            }
+            double[][] matrix = Router.distanceMatrix(graph, sources, targets, metric);
+            res.type("application/json");
+            return matrixJson(metric, matrix);
+        }));
+
+        /* Define the endpoint for everything reachable from a point within a budget. The
+         * isochrone becomes the user's, and is drawn on their rasters from now on. A large
+         * budget searches much of the graph, so it counts as heavy work. */
+        get("/isochrone", on(RequestExecutor.Kind.HEAVY, (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            Router.Metric metric = Router.Metric.DISTANCE;
+            String budget = req.queryParams("miles");
+            if (budget == null) {
+                metric = Router.Metric.TIME;
+                budget = req.queryParams("minutes");
+            }
+            double cost = 0;
+            try {
+                cost = Double.parseDouble(budget == null ? "" : budget);
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Request failed - provide a number of miles or minutes.");
+            }
+            if (metric == Router.Metric.TIME) {
+                cost *= 60;
+            }
+            Isochrone isochrone = new Isochrone(graph, params.get("lon"), params.get("lat"),
+                    cost, metric);
+            ROUTES.setIsochrone(sessionKey(req), isochrone, System.currentTimeMillis());
+            res.type("application/json");
+            return isochroneJson(isochrone);
+        }));
 
         /* Define the API endpoint for clearing the current route. */
-        get("/clear_route", (req, res) -> {
-            clearRoute();
+        get("/clear_route", on(RequestExecutor.Kind.LIGHT, (req, res) -> {
+            clearRoute(sessionKey(req));
             return true;
-        });
+        }));
 
         /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
+        get("/search", on(RequestExecutor.Kind.LIGHT, (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
             Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
-                return gson.toJson(data);
+                /* Fall back to names containing all the words, e.g. "peets coffee". */
+                LocationIndex index = graph.locationIndex;
+                int[] found = index.lookup(term);
+                if (found.length == 0) {
+                    found = index.lookupTokens(term);
+                }
+                return locationsJson(index, found);
             } else {
                 /* Search for prefix matching strings. */
                 List<String> matches = getLocationsByPrefix(term);
                 return gson.toJson(matches);
             }
-        });
+        }));
 
         /* Define map application redirect */
         get("/", (request, response) -> {
@@ -171,6 +308,15 @@ public class MapServer {
         });
     }
 
+    /**
+     * Returns a request handler that does the work of another on EXECUTOR.
+     * @param kind Which of EXECUTOR's pools to use.
+     * @param route The handler doing the work.
+     */
+    private static spark.Route on(RequestExecutor.Kind kind, spark.Route route) {
+        return (req, res) -> EXECUTOR.run(kind, () -> route.handle(req, res));
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -198,31 +344,145 @@ public class MapServer {
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * Returns the image for a successful rastering result, with the caller's route drawn on it,
+     * from RASTERS if it is there, and adds its size and format to the results.
+     * @param req HTTP Request.
+     * @param rasteredImgParams The results of rastering the request.
+     */
+    private static RasterCache.Raster getRaster(spark.Request req,
+                                                Map<String, Object> rasteredImgParams) {
+        long now = System.currentTimeMillis();
+        RouteCache.Route route = ROUTES.route(sessionKey(req), now);
+        Isochrone isochrone = ROUTES.isochrone(sessionKey(req), now);
+        String key = RasterCache.key((String[][]) rasteredImgParams.get("render_grid"),
+                route.version, isochrone == null ? 0 : isochrone.version);
+        RasterCache.Raster raster = RASTERS.get(key);
+        if (raster == null) {
+            /* The image is written to the ByteArrayOutputStream */
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            writeImagesToOutputStream(rasteredImgParams, route.path, isochrone, os);
+            raster = new RasterCache.Raster(os.toByteArray(),
+                    (int) rasteredImgParams.get("raster_width"),
+                    (int) rasteredImgParams.get("raster_height"));
+            RASTERS.put(key, raster);
+        }
+        rasteredImgParams.put("raster_width", raster.width);
+        rasteredImgParams.put("raster_height", raster.height);
+        rasteredImgParams.put("image_format", RENDERER.format().imageType());
+        return raster;
+    }
+
+    /**
+     * Parses a list of points for /matrix and snaps each one to the closest vertex.
+     * @param points Points written as lon,lat pairs separated by semicolons.
+     * @return The indices of the vertices, in the order of the points.
+     */
+    private static int[] getMatrixPoints(String points) {
+        String[] pairs = points.split(";");
+        if (pairs.length > MAX_MATRIX_POINTS) {
+            halt(HALT_RESPONSE, "Too many points - at most " + MAX_MATRIX_POINTS + ".");
+        }
+        int[] vertices = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i += 1) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                vertices[i] = graph.indexOf(graph.closest(Double.parseDouble(lonLat[0].trim()),
+                        Double.parseDouble(lonLat[1].trim())));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * Returns the Json for /matrix: the metric, and the matrix row by row, with null for a
+     * target that cannot be reached from a source.
+     */
+    private static String matrixJson(Router.Metric metric, double[][] matrix)
+            throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginObject();
+        writer.name("metric").value(metric.name().toLowerCase());
+        writer.name("units").value(metric == Router.Metric.TIME ? "seconds" : "miles");
+        writer.name("matrix").beginArray();
+        for (double[] row : matrix) {
+            writer.beginArray();
+            for (double cost : row) {
+                if (cost == Double.POSITIVE_INFINITY) {
+                    writer.nullValue();
+                } else {
+                    writer.value(cost);
+                }
+            }
+            writer.endArray();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.close();
+        return json.toString();
+    }
+
+    /**
+     * Returns the Json for /isochrone: where it starts, its budget, the ids of the vertices it
+     * reaches, and its boundary polygon as lon,lat pairs.
+     */
+    private static String isochroneJson(Isochrone isochrone) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginObject();
+        writer.name("isochrone_success").value(isochrone.vertices.length > 0);
+        writer.name("start").value(isochrone.start);
+        writer.name("metric").value(isochrone.metric.name().toLowerCase());
+        writer.name("budget").value(isochrone.metric == Router.Metric.TIME
+                ? isochrone.budget / 60 : isochrone.budget);
+        writer.name("units").value(isochrone.metric == Router.Metric.TIME ? "minutes" : "miles");
+        writer.name("vertices").beginArray();
+        for (long v : isochrone.vertices) {
+            writer.value(v);
+        }
+        writer.endArray();
+        writer.name("hull").beginArray();
+        for (int i = 0; i < isochrone.hullLons.length; i += 1) {
+            writer.beginArray().value(isochrone.hullLons[i]).value(isochrone.hullLats[i])
+                    .endArray();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.close();
+        return json.toString();
+    }
+
+    /**
+     * Returns the key of the user a request is for: its token parameter if it has one,
+     * otherwise its HTTP session id.
+     * @param req HTTP Request.
+     */
+    private static String sessionKey(spark.Request req) {
+        String token = req.queryParams(SESSION_TOKEN_PARAM);
+        if (token != null && !token.isEmpty()) {
+            return SESSION_TOKEN_PARAM + ":" + token;
+        }
+        return req.session(true).id();
+    }
+
+    /**
+     * Writes the images corresponding to rasteredImgParams to the output stream, with an
+     * isochrone and a route drawn over them, encoded by RENDERER.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                                  List<Long> route, Isochrone isochrone,
                                                   ByteArrayOutputStream os) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
-
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        BufferedImage img = RENDERER.composite(renderGrid);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
-            }
-        }
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -232,6 +492,22 @@ public class MapServer {
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
+        /* If there is an isochrone, shade it under the route. */
+        if (isochrone != null && isochrone.hullLons.length > 2) {
+            int corners = isochrone.hullLons.length;
+            int[] xs = new int[corners];
+            int[] ys = new int[corners];
+            for (int i = 0; i < corners; i += 1) {
+                xs[i] = (int) ((isochrone.hullLons[i] - ullon) * (1 / wdpp));
+                ys[i] = (int) ((ullat - isochrone.hullLats[i]) * (1 / hdpp));
+            }
+            Graphics2D g2d = (Graphics2D) graphic;
+            g2d.setColor(ISOCHRONE_FILL_COLOR);
+            g2d.fillPolygon(xs, ys, corners);
+            g2d.setColor(ISOCHRONE_STROKE_COLOR);
+            g2d.setStroke(new BasicStroke(2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.drawPolygon(xs, ys, corners);
+        }
         if (route != null && !route.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
@@ -250,42 +526,31 @@ public class MapServer {
         rasteredImageParams.put("raster_height", img.getHeight());
 
         try {
-            ImageIO.write(img, "png", os);
+            RENDERER.encode(img, os);
         } catch (IOException e) {
             e.printStackTrace();
         }
 
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
-        }
-        return tileImg;
-    }
-
     /**
-     * Clear the current found route, if it exists.
+     * Clear the current found route of a user, if it exists.
+     * @param sessionKey The user.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static void clearRoute(String sessionKey) {
+        ROUTES.clearRoute(sessionKey);
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * In time proportional to the length of the prefix, collect the most popular names of OSM
+     * locations that prefix-match the query string.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
-     * cleaned <code>prefix</code>.
+     * cleaned <code>prefix</code>, the names shared by the most locations first.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return new LinkedList<>();
+        return graph.locationsByPrefix(prefix);
     }
 
     /**
@@ -301,7 +566,40 @@ public class MapServer {
      * "id" : Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        LocationIndex index = graph.locationIndex;
+        List<Map<String, Object>> locations = new ArrayList<>();
+        for (int p : index.lookup(locationName)) {
+            Map<String, Object> location = new HashMap<>();
+            location.put("lat", index.lat(p));
+            location.put("lon", index.lon(p));
+            location.put("name", index.name(p));
+            location.put("id", index.id(p));
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the Json for /search?full, with the same fields as getLocations, written
+     * straight from the index rather than through a map per location.
+     * @param index The index the locations were found in.
+     * @param positions The positions of the locations in the index.
+     */
+    private static String locationsJson(LocationIndex index, int[] positions) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginArray();
+        for (int p : positions) {
+            writer.beginObject();
+            writer.name("lat").value(index.lat(p));
+            writer.name("lon").value(index.lon(p));
+            writer.name("name").value(index.name(p));
+            writer.name("id").value(index.id(p));
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.close();
+        return json.toString();
     }
 
     /**
@@ -326,11 +624,10 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes the directions of a route and converts them into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
+    private static String getDirectionsText(List<Router.NavigationDirection> directions) {
         if (directions == null || directions.isEmpty()) {
           return "";
         }
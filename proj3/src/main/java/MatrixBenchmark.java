@@ -0,0 +1,114 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares Router.distanceMatrix against calling Router.shortestPath for every pair, on square
+ * matrices between random vertices: once with A*, once with the contraction hierarchy, and
+ * then the matrix with one search per source, on one thread and on the common pool. Reports
+ * milliseconds per matrix and pairs per second. Pass a different OSM file as the first
+ * argument if you like, the number of sources and targets as the second, and the number of
+ * matrices as the third.
+ */
+public class MatrixBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int DEFAULT_SIZE = 50;
+    private static final int DEFAULT_MATRICES = 5;
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE;
+        int matrices = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MATRICES;
+        GraphDB g = GraphDB.load(dbPath);
+        int n = g.vertexCount();
+        if (n == 0) {
+            System.out.println("No vertices in " + dbPath + ".");
+            return;
+        }
+        Random random = new Random(22);
+        int[][] sources = new int[matrices][size];
+        int[][] targets = new int[matrices][size];
+        for (int k = 0; k < matrices; k += 1) {
+            for (int i = 0; i < size; i += 1) {
+                sources[k][i] = random.nextInt(n);
+                targets[k][i] = random.nextInt(n);
+            }
+        }
+        Router.prepare(g, Router.Algorithm.CH);
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool common = ForkJoinPool.commonPool();
+
+        System.out.println("Graph: " + n + " vertices, " + matrices + " matrices of " + size
+                + " x " + size + ", " + common.getParallelism() + " common pool threads.");
+        /* Warm up, and check that every way agrees. */
+        double[][] expected = pairwise(g, sources[0], targets[0], Router.Algorithm.ASTAR);
+        double[][] viaCh = pairwise(g, sources[0], targets[0], Router.Algorithm.CH);
+        double[][] viaMatrix = Router.distanceMatrix(g, sources[0], targets[0],
+                Router.metric(), common);
+        int mismatches = 0;
+        for (int i = 0; i < size; i += 1) {
+            for (int j = 0; j < size; j += 1) {
+                if (!close(expected[i][j], viaCh[i][j])
+                        || !close(expected[i][j], viaMatrix[i][j])) {
+                    mismatches += 1;
+                }
+            }
+        }
+        System.out.println("Mismatches: " + mismatches);
+
+        long start = System.nanoTime();
+        for (int k = 0; k < matrices; k += 1) {
+            pairwise(g, sources[k], targets[k], Router.Algorithm.ASTAR);
+        }
+        report("pairwise A*", System.nanoTime() - start, matrices, size);
+        start = System.nanoTime();
+        for (int k = 0; k < matrices; k += 1) {
+            pairwise(g, sources[k], targets[k], Router.Algorithm.CH);
+        }
+        report("pairwise CH", System.nanoTime() - start, matrices, size);
+        start = System.nanoTime();
+        for (int k = 0; k < matrices; k += 1) {
+            Router.distanceMatrix(g, sources[k], targets[k], Router.metric(), one);
+        }
+        report("matrix, 1 thread", System.nanoTime() - start, matrices, size);
+        start = System.nanoTime();
+        for (int k = 0; k < matrices; k += 1) {
+            Router.distanceMatrix(g, sources[k], targets[k], Router.metric(), common);
+        }
+        report("matrix, common pool", System.nanoTime() - start, matrices, size);
+        one.shutdown();
+    }
+
+    /** Returns the matrix by searching for every pair on its own. */
+    private static double[][] pairwise(GraphDB g, int[] sources, int[] targets,
+                                       Router.Algorithm a) {
+        double[][] matrix = new double[sources.length][targets.length];
+        for (int i = 0; i < sources.length; i += 1) {
+            for (int j = 0; j < targets.length; j += 1) {
+                matrix[i][j] = length(g, Router.shortestPath(g, sources[i], targets[j], a));
+            }
+        }
+        return matrix;
+    }
+
+    /** Returns the length of a path in miles, or infinity if there is no path. */
+    private static double length(GraphDB g, List<Long> path) {
+        if (path.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double length = 0;
+        for (int i = 1; i < path.size(); i += 1) {
+            length += g.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+
+    private static boolean close(double a, double b) {
+        return a == b || Math.abs(a - b) < 1e-9;
+    }
+
+    private static void report(String label, long nanos, int matrices, int size) {
+        System.out.printf("%-20s %10.1f ms/matrix %12.0f pairs/s%n", label,
+                nanos / 1e6 / matrices, (double) matrices * size * size / (nanos / 1e9));
+    }
+}
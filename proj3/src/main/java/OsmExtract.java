@@ -0,0 +1,213 @@
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Everything a GraphBuildingHandler collects from one OSM file, in growable primitive buffers:
+ * every node, every segment of every valid road, and every named location. GraphDB turns an
+ * extract into its compact graph and then drops it.
+ */
+public class OsmExtract {
+    /** Initial capacity of the buffers; they grow by doubling. */
+    private static final int INITIAL_CAPACITY = 1024;
+    /** Size of the decompression buffer for gzipped files. */
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+    long[] nodeIds = new long[INITIAL_CAPACITY];
+    double[] nodeLons = new double[INITIAL_CAPACITY];
+    double[] nodeLats = new double[INITIAL_CAPACITY];
+    int nodeCount;
+
+    /** Endpoint ids of every road segment, two entries per segment. */
+    long[] edges = new long[2 * INITIAL_CAPACITY];
+    /** The way name of every road segment, as an index into wayNames. */
+    int[] edgeNames = new int[INITIAL_CAPACITY];
+    /** The speed limit of every road segment in miles per hour, unsigned. */
+    byte[] edgeSpeeds = new byte[INITIAL_CAPACITY];
+    int edgeCount;
+    /** Interned way names. Index 0 is the empty name used by ways without a name tag. */
+    final List<String> wayNames = new ArrayList<>();
+    private final Map<String, Integer> wayNameIndex = new HashMap<>();
+
+    long[] locationIds = new long[INITIAL_CAPACITY];
+    double[] locationLons = new double[INITIAL_CAPACITY];
+    double[] locationLats = new double[INITIAL_CAPACITY];
+    String[] locationNames = new String[INITIAL_CAPACITY];
+    int locationCount;
+
+    public OsmExtract() {
+        internWayName(null);
+    }
+
+    /**
+     * Opens an OSM file for reading, decompressing it on the fly if its name ends in ".gz".
+     * @param dbPath Path to the OSM XML file.
+     * @return A stream of the XML.
+     * @throws IOException If the file cannot be opened.
+     */
+    static InputStream open(String dbPath) throws IOException {
+        InputStream in = new FileInputStream(dbPath);
+        if (dbPath.endsWith(".gz")) {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * Reads an OSM file with the streaming parser. Errors are reported, and whatever was read
+     * before the error is kept, just like GraphDB has always done for a single file.
+     * @param dbPath Path to the OSM XML file, optionally gzipped.
+     * @return The extract.
+     */
+    static OsmExtract read(String dbPath) {
+        OsmExtract extract = new OsmExtract();
+        try {
+            extract.parse(dbPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return extract;
+    }
+
+    /**
+     * Concatenates several extracts, in order, into one. Nodes shared by neighbouring extracts
+     * are left for GraphDB to deduplicate; named locations are deduplicated here by id, keeping
+     * the first.
+     * @param extracts The extracts to merge.
+     * @return The merged extract.
+     */
+    static OsmExtract merge(List<OsmExtract> extracts) {
+        OsmExtract merged = new OsmExtract();
+        Set<Long> locations = new HashSet<>();
+        for (OsmExtract x : extracts) {
+            for (int i = 0; i < x.nodeCount; i += 1) {
+                merged.addNode(x.nodeIds[i], x.nodeLons[i], x.nodeLats[i]);
+            }
+            for (int i = 0; i < x.edgeCount; i += 1) {
+                merged.addEdge(x.edges[2 * i], x.edges[2 * i + 1],
+                        x.wayNames.get(x.edgeNames[i]), x.edgeSpeeds[i] & 0xff);
+            }
+            for (int i = 0; i < x.locationCount; i += 1) {
+                if (locations.add(x.locationIds[i])) {
+                    merged.addLocation(x.locationIds[i], x.locationLons[i], x.locationLats[i],
+                            x.locationNames[i]);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Reads an OSM file into this extract with the streaming parser.
+     * @param dbPath Path to the OSM XML file, optionally gzipped.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    void parse(String dbPath) throws IOException {
+        try (InputStream in = open(dbPath)) {
+            new OsmStreamParser(in, new GraphBuildingHandler(this)).parse();
+        }
+    }
+
+    /**
+     * Reads an OSM file into this extract with the JDK's SAX parser. This is slower than parse,
+     * and is kept as a reference implementation.
+     * @param dbPath Path to the OSM XML file, optionally gzipped.
+     * @throws IOException If the file cannot be read.
+     * @throws SAXException If the file is malformed.
+     * @throws ParserConfigurationException If no SAX parser is available.
+     */
+    void parseWithSax(String dbPath)
+            throws IOException, SAXException, ParserConfigurationException {
+        try (InputStream in = open(dbPath)) {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            SAXParser saxParser = factory.newSAXParser();
+            saxParser.parse(in, new GraphBuildingHandler(this));
+        }
+    }
+
+    /**
+     * Adds a node. Nodes only become vertices if some road passes through them.
+     * @param id The OSM id of the node.
+     * @param lon The longitude of the node.
+     * @param lat The latitude of the node.
+     */
+    void addNode(long id, double lon, double lat) {
+        if (nodeCount == nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, 2 * nodeCount);
+            nodeLons = Arrays.copyOf(nodeLons, 2 * nodeCount);
+            nodeLats = Arrays.copyOf(nodeLats, 2 * nodeCount);
+        }
+        nodeIds[nodeCount] = id;
+        nodeLons[nodeCount] = lon;
+        nodeLats[nodeCount] = lat;
+        nodeCount += 1;
+    }
+
+    /**
+     * Adds an undirected road segment between the nodes v and w. The nodes need not have been
+     * added yet, but segments whose nodes never show up are dropped when the graph is built.
+     * @param v The OSM id of one endpoint.
+     * @param w The OSM id of the other endpoint.
+     * @param wayName The name of the way the segment belongs to, or null if it has none.
+     * @param speed The speed limit of the way in miles per hour, 1 to
+     *              GraphBuildingHandler.MAX_SPEED.
+     */
+    void addEdge(long v, long w, String wayName, int speed) {
+        if (edgeCount == edgeNames.length) {
+            edges = Arrays.copyOf(edges, 4 * edgeCount);
+            edgeNames = Arrays.copyOf(edgeNames, 2 * edgeCount);
+            edgeSpeeds = Arrays.copyOf(edgeSpeeds, 2 * edgeCount);
+        }
+        edges[2 * edgeCount] = v;
+        edges[2 * edgeCount + 1] = w;
+        edgeNames[edgeCount] = internWayName(wayName);
+        edgeSpeeds[edgeCount] = (byte) speed;
+        edgeCount += 1;
+    }
+
+    /**
+     * Adds a named location, e.g. a node with a name tag.
+     * @param id The OSM id of the node.
+     * @param lon The longitude of the node.
+     * @param lat The latitude of the node.
+     * @param name The name of the location, as it appears in the map data.
+     */
+    void addLocation(long id, double lon, double lat, String name) {
+        if (locationCount == locationIds.length) {
+            locationIds = Arrays.copyOf(locationIds, 2 * locationCount);
+            locationLons = Arrays.copyOf(locationLons, 2 * locationCount);
+            locationLats = Arrays.copyOf(locationLats, 2 * locationCount);
+            locationNames = Arrays.copyOf(locationNames, 2 * locationCount);
+        }
+        locationIds[locationCount] = id;
+        locationLons[locationCount] = lon;
+        locationLats[locationCount] = lat;
+        locationNames[locationCount] = name;
+        locationCount += 1;
+    }
+
+    /** Returns the index of a way name in wayNames, adding it if it is new. */
+    private int internWayName(String wayName) {
+        String name = wayName == null ? "" : wayName;
+        Integer index = wayNameIndex.get(name);
+        if (index == null) {
+            index = wayNames.size();
+            wayNames.add(name);
+            wayNameIndex.put(name, index);
+        }
+        return index;
+    }
+}
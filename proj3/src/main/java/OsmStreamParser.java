@@ -0,0 +1,461 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A small pull parser for OSM XML that feeds a GraphBuildingHandler. It only understands the
+ * subset of XML that OSM files use (elements, attributes, character references, comments and
+ * processing instructions), which lets it work directly on the raw bytes:
+ * <ul>
+ *     <li>Element names and tag keys are matched against byte constants and never become
+ *     Strings.</li>
+ *     <li>Ids and coordinates are parsed straight from the bytes. Coordinates with up to 15
+ *     significant digits are converted with a single correctly rounded division, so they come
+ *     out exactly as Double.parseDouble would produce them.</li>
+ *     <li>Tag values are only decoded into Strings if the handler asks for them.</li>
+ * </ul>
+ * Anything outside of tags (whitespace between elements) is skipped without being examined.
+ */
+public class OsmStreamParser {
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** The largest mantissa that a double represents exactly. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /** Powers of ten that are exact in a double. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] K = ascii("k");
+    private static final byte[] V = ascii("v");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] HIGHWAY = ascii("highway");
+    private static final byte[] MAXSPEED = ascii("maxspeed");
+    private static final byte[] AMP = ascii("amp");
+    private static final byte[] LT = ascii("lt");
+    private static final byte[] GT = ascii("gt");
+    private static final byte[] QUOT = ascii("quot");
+    private static final byte[] APOS = ascii("apos");
+
+    private final InputStream in;
+    private final GraphBuildingHandler handler;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    /** The unread bytes are buf[pos] .. buf[limit - 1]. */
+    private int pos;
+    private int limit;
+    private long bytesRead;
+    /** Scratch space for decoding attribute values. */
+    private byte[] text = new byte[256];
+
+    /* The attribute most recently found by nextAttribute. */
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    /**
+     * Creates a parser. It does its own buffering, so the stream need not be buffered.
+     * @param in The OSM XML to read.
+     * @param handler The handler to report nodes, ways and tags to.
+     */
+    public OsmStreamParser(InputStream in, GraphBuildingHandler handler) {
+        this.in = in;
+        this.handler = handler;
+    }
+
+    /**
+     * Reads the whole stream, reporting everything to the handler.
+     * @throws IOException If the stream cannot be read or is not well-formed OSM XML.
+     */
+    public void parse() throws IOException {
+        while (findTagStart()) {
+            int end = findTagEnd();
+            int start = pos + 1;
+            pos = end + 1;
+            if (buf[start] == '/') {
+                endElement(start + 1, end);
+            } else if (buf[start] != '?' && buf[start] != '!') {
+                startElement(start, end);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes read from the stream so far.
+     * @return The number of bytes read.
+     */
+    long bytesRead() {
+        return bytesRead;
+    }
+
+    /** Handles the start tag in buf[start] .. buf[end - 1], without the angle brackets. */
+    private void startElement(int start, int end) throws IOException {
+        boolean selfClosing = buf[end - 1] == '/';
+        int attributesEnd = selfClosing ? end - 1 : end;
+        int p = start;
+        while (p < attributesEnd && !isSpace(buf[p])) {
+            p += 1;
+        }
+        int elementEnd = p;
+
+        if (matches(start, elementEnd, NODE)) {
+            long id = 0;
+            double lon = 0;
+            double lat = 0;
+            while ((p = nextAttribute(p, attributesEnd)) >= 0) {
+                if (matches(nameStart, nameEnd, ID)) {
+                    id = parseLong(valueStart, valueEnd);
+                } else if (matches(nameStart, nameEnd, LON)) {
+                    lon = parseDouble(valueStart, valueEnd);
+                } else if (matches(nameStart, nameEnd, LAT)) {
+                    lat = parseDouble(valueStart, valueEnd);
+                }
+            }
+            handler.startNode(id, lon, lat);
+            if (selfClosing) {
+                handler.endNode();
+            }
+        } else if (matches(start, elementEnd, ND)) {
+            while ((p = nextAttribute(p, attributesEnd)) >= 0) {
+                if (matches(nameStart, nameEnd, REF)) {
+                    handler.wayNode(parseLong(valueStart, valueEnd));
+                }
+            }
+        } else if (matches(start, elementEnd, TAG)) {
+            int key = GraphBuildingHandler.KEY_OTHER;
+            int vStart = -1;
+            int vEnd = -1;
+            while ((p = nextAttribute(p, attributesEnd)) >= 0) {
+                if (matches(nameStart, nameEnd, K)) {
+                    key = keyCode(valueStart, valueEnd);
+                } else if (matches(nameStart, nameEnd, V)) {
+                    vStart = valueStart;
+                    vEnd = valueEnd;
+                }
+            }
+            if (vStart >= 0 && handler.wantsTag(key)) {
+                handler.tag(key, decode(vStart, vEnd));
+            }
+        } else if (matches(start, elementEnd, WAY)) {
+            handler.startWay();
+            if (selfClosing) {
+                handler.endWay();
+            }
+        }
+    }
+
+    /** Handles the end tag whose name starts at buf[start], with the closing bracket at end. */
+    private void endElement(int start, int end) {
+        int p = start;
+        while (p < end && !isSpace(buf[p])) {
+            p += 1;
+        }
+        if (matches(start, p, WAY)) {
+            handler.endWay();
+        } else if (matches(start, p, NODE)) {
+            handler.endNode();
+        }
+    }
+
+    /**
+     * Finds the next attribute in buf[p] .. buf[end - 1] and records where its name and value
+     * are in nameStart, nameEnd, valueStart and valueEnd.
+     * @return The position just past the attribute, or -1 if there are no more attributes.
+     */
+    private int nextAttribute(int p, int end) throws IOException {
+        while (p < end && isSpace(buf[p])) {
+            p += 1;
+        }
+        if (p >= end) {
+            return -1;
+        }
+        nameStart = p;
+        while (p < end && buf[p] != '=' && !isSpace(buf[p])) {
+            p += 1;
+        }
+        nameEnd = p;
+        while (p < end && isSpace(buf[p])) {
+            p += 1;
+        }
+        if (p >= end || buf[p] != '=') {
+            throw malformed(nameStart);
+        }
+        p += 1;
+        while (p < end && isSpace(buf[p])) {
+            p += 1;
+        }
+        if (p >= end || (buf[p] != '"' && buf[p] != '\'')) {
+            throw malformed(nameStart);
+        }
+        byte quote = buf[p];
+        valueStart = p + 1;
+        p = valueStart;
+        while (p < end && buf[p] != quote) {
+            p += 1;
+        }
+        if (p >= end) {
+            throw malformed(nameStart);
+        }
+        valueEnd = p;
+        return p + 1;
+    }
+
+    /** Maps the tag key in buf[start] .. buf[end - 1] to a GraphBuildingHandler key code. */
+    private int keyCode(int start, int end) {
+        if (matches(start, end, NAME)) {
+            return GraphBuildingHandler.KEY_NAME;
+        } else if (matches(start, end, HIGHWAY)) {
+            return GraphBuildingHandler.KEY_HIGHWAY;
+        } else if (matches(start, end, MAXSPEED)) {
+            return GraphBuildingHandler.KEY_MAXSPEED;
+        }
+        return GraphBuildingHandler.KEY_OTHER;
+    }
+
+    private long parseLong(int start, int end) {
+        int i = start;
+        boolean negative = i < end && buf[i] == '-';
+        if (negative) {
+            i += 1;
+        }
+        if (i == end || end - i > 18) {
+            return Long.parseLong(ascii(start, end));
+        }
+        long x = 0;
+        for (; i < end; i += 1) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(ascii(start, end));
+            }
+            x = 10 * x + digit;
+        }
+        return negative ? -x : x;
+    }
+
+    private double parseDouble(int start, int end) {
+        int i = start;
+        boolean negative = i < end && buf[i] == '-';
+        if (negative || (i < end && buf[i] == '+')) {
+            i += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i += 1) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                if (digits == 18) {
+                    return Double.parseDouble(ascii(start, end));
+                }
+                mantissa = 10 * mantissa + (b - '0');
+                digits += 1;
+                if (point) {
+                    scale += 1;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                /* Exponents and anything unusual take the slow path. */
+                return Double.parseDouble(ascii(start, end));
+            }
+        }
+        if (digits == 0 || mantissa > MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(ascii(start, end));
+        }
+        double x = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -x : x;
+    }
+
+    /**
+     * Decodes the attribute value in buf[start] .. buf[end - 1], resolving character
+     * references and normalizing whitespace the way an XML parser would.
+     */
+    private String decode(int start, int end) throws IOException {
+        if (text.length < end - start) {
+            text = new byte[Math.max(end - start, 2 * text.length)];
+        }
+        int n = 0;
+        for (int i = start; i < end; i += 1) {
+            byte b = buf[i];
+            if (b == '&') {
+                int semicolon = i + 1;
+                while (semicolon < end && buf[semicolon] != ';') {
+                    semicolon += 1;
+                }
+                if (semicolon == end) {
+                    throw malformed(i);
+                }
+                n = appendCodePoint(n, reference(i + 1, semicolon));
+                i = semicolon;
+            } else if (b == '\t' || b == '\n' || b == '\r') {
+                text[n++] = ' ';
+            } else {
+                text[n++] = b;
+            }
+        }
+        return new String(text, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /** Resolves the entity or character reference named in buf[start] .. buf[end - 1]. */
+    private int reference(int start, int end) throws IOException {
+        if (matches(start, end, AMP)) {
+            return '&';
+        } else if (matches(start, end, LT)) {
+            return '<';
+        } else if (matches(start, end, GT)) {
+            return '>';
+        } else if (matches(start, end, QUOT)) {
+            return '"';
+        } else if (matches(start, end, APOS)) {
+            return '\'';
+        } else if (end - start > 1 && buf[start] == '#') {
+            try {
+                if (buf[start + 1] == 'x') {
+                    return Integer.parseInt(ascii(start + 2, end), 16);
+                }
+                return Integer.parseInt(ascii(start + 1, end));
+            } catch (NumberFormatException e) {
+                throw malformed(start);
+            }
+        }
+        throw malformed(start);
+    }
+
+    /** Appends a code point to text as UTF-8. Never needs more room than the reference. */
+    private int appendCodePoint(int n, int c) {
+        if (c < 0x80) {
+            text[n++] = (byte) c;
+        } else if (c < 0x800) {
+            text[n++] = (byte) (0xc0 | (c >> 6));
+            text[n++] = (byte) (0x80 | (c & 0x3f));
+        } else if (c < 0x10000) {
+            text[n++] = (byte) (0xe0 | (c >> 12));
+            text[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            text[n++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            text[n++] = (byte) (0xf0 | (c >> 18));
+            text[n++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+            text[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            text[n++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return n;
+    }
+
+    /**
+     * Advances pos to the next '<', reading more input as needed.
+     * @return False if the input ended first.
+     */
+    private boolean findTagStart() throws IOException {
+        while (true) {
+            for (int i = pos; i < limit; i += 1) {
+                if (buf[i] == '<') {
+                    pos = i;
+                    return true;
+                }
+            }
+            pos = limit;
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Makes sure the whole tag starting at pos is in the buffer, reading more input as needed.
+     * Quoted attribute values and comments may contain '>', so they are skipped over.
+     * @return The position of the '>' that closes the tag.
+     */
+    private int findTagEnd() throws IOException {
+        int i = pos + 1;
+        byte quote = 0;
+        boolean comment = false;
+        while (true) {
+            for (; i < limit; i += 1) {
+                byte b = buf[i];
+                if (i - pos == 3) {
+                    comment = buf[pos + 1] == '!' && buf[pos + 2] == '-' && b == '-';
+                }
+                if (comment) {
+                    if (b == '>' && i - pos > 5 && buf[i - 1] == '-' && buf[i - 2] == '-') {
+                        return i;
+                    }
+                } else if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return i;
+                }
+            }
+            int shift = pos;
+            if (!fill()) {
+                throw new IOException("Unexpected end of input inside a tag.");
+            }
+            i -= shift;
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, growing it if it is full, and reads
+     * more input after them. Afterwards pos is 0.
+     * @return False if the input has ended.
+     */
+    private boolean fill() throws IOException {
+        System.arraycopy(buf, pos, buf, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, 2 * buf.length);
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            return false;
+        }
+        limit += n;
+        bytesRead += n;
+        return true;
+    }
+
+    private boolean matches(int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i += 1) {
+            if (buf[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException malformed(int at) {
+        int from = Math.max(0, at - 20);
+        return new IOException("Malformed OSM XML near \""
+                + new String(buf, from, Math.min(limit, at + 20) - from,
+                        StandardCharsets.UTF_8) + "\".");
+    }
+
+    private String ascii(int start, int end) {
+        return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
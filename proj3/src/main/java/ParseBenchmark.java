@@ -0,0 +1,58 @@
+import java.io.File;
+
+/**
+ * Compares OSM ingestion throughput of the JDK SAX parser against OsmStreamParser, both feeding
+ * a GraphBuildingHandler. Only parsing is timed, not building the graph. Pass a different OSM
+ * file (optionally gzipped) as the first argument if you like, and the number of rounds as the
+ * second.
+ */
+public class ParseBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int DEFAULT_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        File source = new File(dbPath);
+        if (!source.isFile()) {
+            System.out.println("Cannot find " + dbPath + ".");
+            return;
+        }
+
+        /* Warm up both parsers once. */
+        new OsmExtract().parseWithSax(dbPath);
+        new OsmExtract().parse(dbPath);
+
+        long saxNanos = 0;
+        long streamNanos = 0;
+        OsmExtract sax = null;
+        OsmExtract stream = null;
+        for (int i = 0; i < rounds; i += 1) {
+            long start = System.nanoTime();
+            sax = new OsmExtract();
+            sax.parseWithSax(dbPath);
+            saxNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            stream = new OsmExtract();
+            stream.parse(dbPath);
+            streamNanos += System.nanoTime() - start;
+        }
+
+        if (sax.nodeCount != stream.nodeCount || sax.edgeCount != stream.edgeCount
+                || sax.locationCount != stream.locationCount) {
+            System.out.println("Warning: the parsers disagree on the contents of " + dbPath);
+        }
+        System.out.println(source.length() / 1024 + " KB, " + stream.nodeCount + " nodes, "
+                + stream.edgeCount + " road segments, " + stream.locationCount + " locations.");
+        report("SAX handler:  ", source.length(), stream.nodeCount, saxNanos / rounds);
+        report("Stream parser:", source.length(), stream.nodeCount, streamNanos / rounds);
+        System.out.printf("Speedup:       %.1fx%n", (double) saxNanos / streamNanos);
+    }
+
+    private static void report(String label, long bytes, int nodes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s %8.1f ms, %10.0f nodes/sec, %7.1f MB/sec%n", label,
+                nanos / 1e6, nodes / seconds, bytes / seconds / (1 << 20));
+    }
+}
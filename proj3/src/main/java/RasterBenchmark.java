@@ -0,0 +1,151 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/* Maven is used to pull in these dependencies. */
+import com.google.gson.Gson;
+
+/**
+ * Times putting together and encoding 4x4 and 8x8 grids of deepest level tiles, drawn a row at
+ * a time on one thread or on the common pool, and encoded in each format at a few qualities.
+ * Tiles are read into the cache first, so that the disk is left out of it. Then measures how
+ * much memory it takes to turn an encoded image into a response: as one big JSON String as
+ * /raster used to, streamed as JSON, or as the bare image. Pass a different image folder as the
+ * first argument if you like, and the number of repetitions as the second.
+ */
+public class RasterBenchmark {
+    private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    private static final int DEFAULT_REPETITIONS = 20;
+    private static final int[] GRID_SIZES = {4, 8};
+
+    public static void main(String[] args) throws IOException {
+        String root = args.length > 0 ? args[0] : IMG_ROOT;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPETITIONS;
+        TileCache tiles = new TileCache(root);
+        ForkJoinPool oneThread = new ForkJoinPool(1);
+        System.out.println("Common pool parallelism: "
+                + ForkJoinPool.commonPool().getParallelism() + ", " + repetitions
+                + " repetitions.");
+        System.out.println("Grid  Composite        Encoder        composite ms  encode ms"
+                + "   total ms      bytes");
+        for (int size : GRID_SIZES) {
+            String[][] grid = grid(size);
+            for (String[] row : grid) {
+                for (String name : row) {
+                    tiles.get(name);
+                }
+            }
+            run(grid, "one thread", new RasterRenderer(tiles, RasterRenderer.Format.PNG, -1,
+                    oneThread), "PNG default", repetitions);
+            run(grid, "common pool", new RasterRenderer(tiles, RasterRenderer.Format.PNG, -1,
+                    ForkJoinPool.commonPool()), "PNG default", repetitions);
+            for (float quality : new float[] {0.75f, 1f}) {
+                run(grid, "common pool", new RasterRenderer(tiles, RasterRenderer.Format.PNG,
+                        quality, ForkJoinPool.commonPool()), "PNG " + quality, repetitions);
+            }
+            for (float quality : new float[] {0.75f, 0.9f}) {
+                run(grid, "common pool", new RasterRenderer(tiles, RasterRenderer.Format.JPEG,
+                        quality, ForkJoinPool.commonPool()), "JPEG " + quality, repetitions);
+            }
+        }
+        oneThread.shutdown();
+
+        System.out.println();
+        System.out.println("Grid  Response                     allocated bytes/response");
+        for (int size : GRID_SIZES) {
+            String[][] grid = grid(size);
+            RasterRenderer renderer = new RasterRenderer(tiles);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            renderer.encode(renderer.composite(grid), encoded);
+            byte[] image = encoded.toByteArray();
+            Map<String, Object> results = new HashMap<>();
+            results.put("render_grid", grid);
+            results.put("raster_ul_lon", MapServer.ROOT_ULLON);
+            results.put("depth", TileCache.MAX_DEPTH);
+            results.put("query_success", true);
+            for (String response : new String[] {"JSON String", "JSON streamed", "image"}) {
+                long bytes = 0;
+                for (int i = 0; i < repetitions + 3; i += 1) {
+                    long start = RouterBenchmark.allocatedBytes();
+                    respond(response, results, image, new CountingOutputStream());
+                    if (i >= 3) {
+                        bytes += RouterBenchmark.allocatedBytes() - start;
+                    }
+                }
+                System.out.printf("%dx%-2d  %-15s (%9d bytes) %16d%n", size, size, response,
+                        image.length, bytes / repetitions);
+            }
+        }
+    }
+
+    /** Writes a /raster response for an already encoded image, in one of three ways. */
+    private static void respond(String response, Map<String, Object> results, byte[] image,
+                                OutputStream os) throws IOException {
+        if (response.equals("JSON String")) {
+            Map<String, Object> withImage = new HashMap<>(results);
+            withImage.put("b64_encoded_image_data", Base64.getEncoder().encodeToString(image));
+            os.write(new Gson().toJson(withImage).getBytes(StandardCharsets.UTF_8));
+        } else if (response.equals("JSON streamed")) {
+            RasterRenderer.writeJson(results, image, os);
+        } else {
+            os.write(image);
+        }
+    }
+
+    /** Stands in for a response: counts the bytes written to it and throws them away. */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /** Returns a square grid of depth 7 tiles from the north west corner of the map. */
+    private static String[][] grid(int size) {
+        String[][] grid = new String[size][size];
+        for (int y = 0; y < size; y += 1) {
+            for (int x = 0; x < size; x += 1) {
+                grid[y][x] = TileCache.tileName(TileCache.MAX_DEPTH, x, y);
+            }
+        }
+        return grid;
+    }
+
+    private static void run(String[][] grid, String composite, RasterRenderer renderer,
+                            String encoder, int repetitions) throws IOException {
+        /* Warm up. */
+        for (int i = 0; i < 3; i += 1) {
+            renderer.encode(renderer.composite(grid), new ByteArrayOutputStream());
+        }
+        long compositeNanos = 0;
+        long encodeNanos = 0;
+        int bytes = 0;
+        for (int i = 0; i < repetitions; i += 1) {
+            long start = System.nanoTime();
+            BufferedImage img = renderer.composite(grid);
+            long middle = System.nanoTime();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            renderer.encode(img, os);
+            encodeNanos += System.nanoTime() - middle;
+            compositeNanos += middle - start;
+            bytes = os.size();
+        }
+        System.out.printf("%dx%-2d  %-15s  %-13s %12.2f %10.2f %10.2f %10d%n", grid.length,
+                grid.length, composite, encoder, compositeNanos / 1e6 / repetitions,
+                encodeNanos / 1e6 / repetitions,
+                (compositeNanos + encodeNanos) / 1e6 / repetitions, bytes);
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded cache of finished /raster images: the encoded PNG or JPEG of a grid of tiles with a
+ * route drawn on it. Many requests, from panning back and forth or from different users, come
+ * down to the same grid with the same route or none, and a hit skips compositing and encoding
+ * altogether. Images are kept as raw bytes, which take up less than half the memory of their
+ * Base64 strings and can be written straight to a response, or Base64 encoded on the way.
+ *
+ * Images are keyed by the corner tiles of the grid, which fix its depth and tile range, and
+ * by the version of the route drawn on it. Setting a new route gives it a new version, so
+ * images of the old route are never served again and age out of the cache. Images are
+ * dropped least recently used first once their encoded bytes go over a budget.
+ */
+public class RasterCache {
+    /** How many bytes of encoded images to keep by default. */
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /** An encoded image, with its size in pixels. */
+    static class Raster {
+        final byte[] image;
+        final int width;
+        final int height;
+
+        Raster(byte[] image, int width, int height) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+        }
+
+        /** Returns how many bytes the encoded image takes up. */
+        long bytes() {
+            return image.length;
+        }
+    }
+
+    private final long maxBytes;
+    /** Rasters by key, least recently used first. */
+    private final LinkedHashMap<String, Raster> rasters = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Creates an empty cache with the default budget. */
+    public RasterCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates an empty cache.
+     * @param maxBytes How many bytes of encoded images to keep at most.
+     */
+    RasterCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the key of a raster.
+     * @param renderGrid The file names of the tiles, row by row.
+     * @param routeVersion The version of the route drawn over them, or 0 if there is none.
+     */
+    static String key(String[][] renderGrid, long routeVersion) {
+        return key(renderGrid, routeVersion, 0);
+    }
+
+    /**
+     * Returns the key of a raster with an isochrone drawn on it as well.
+     * @param renderGrid The file names of the tiles, row by row.
+     * @param routeVersion The version of the route drawn over them, or 0 if there is none.
+     * @param isochroneVersion The version of the isochrone drawn over them, or 0 if there is
+     *                         none.
+     */
+    static String key(String[][] renderGrid, long routeVersion, long isochroneVersion) {
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        return renderGrid[0][0] + ' ' + lastRow[lastRow.length - 1] + ' ' + routeVersion + ' '
+                + isochroneVersion;
+    }
+
+    /**
+     * Returns a cached raster.
+     * @param key The key of the raster.
+     * @return The raster, or null if it is not cached.
+     */
+    synchronized Raster get(String key) {
+        Raster raster = rasters.get(key);
+        if (raster != null) {
+            hits += 1;
+        } else {
+            misses += 1;
+        }
+        return raster;
+    }
+
+    /**
+     * Caches a raster, unless it is bigger than the whole budget.
+     * @param key The key of the raster.
+     * @param raster The raster.
+     */
+    synchronized void put(String key, Raster raster) {
+        if (raster.bytes() > maxBytes) {
+            return;
+        }
+        Raster old = rasters.put(key, raster);
+        if (old != null) {
+            bytes -= old.bytes();
+        }
+        bytes += raster.bytes();
+        Iterator<Raster> it = rasters.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= it.next().bytes();
+            it.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Empties the cache, but keeps its counters. */
+    synchronized void clear() {
+        rasters.clear();
+        bytes = 0;
+    }
+
+    /** Returns how many rasters are cached. */
+    synchronized int size() {
+        return rasters.size();
+    }
+
+    /** Returns roughly how many bytes the cached rasters take up. */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /** Returns how many lookups found their raster cached. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns how many lookups did not. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns how many rasters were dropped to stay within the budget. */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RasterCache: %d rasters, %d bytes, %d hits, %d misses, "
+                + "%d evictions", rasters.size(), bytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,214 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/* Maven is used to pull in these dependencies. */
+import com.google.gson.Gson;
+
+/**
+ * Puts grids of map tiles together into one image and encodes it, for the /raster endpoint.
+ * Each row of tiles is drawn by its own task on a fork-join pool, so a big viewport is not
+ * drawn one tile at a time. The image is encoded as PNG or, much faster and smaller but lossy,
+ * as JPEG, both of which the JDK can write. Which one, and how hard to compress it, is read
+ * from the bearmaps.raster.format and bearmaps.raster.quality system properties.
+ */
+public class RasterRenderer {
+    /** The image formats a raster can be encoded in. */
+    public enum Format {
+        PNG, JPEG;
+
+        /** Returns the name ImageIO and data URLs know this format by. */
+        String imageType() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /** The system property that picks the Format, e.g. -Dbearmaps.raster.format=jpeg. */
+    static final String FORMAT_PROPERTY = "bearmaps.raster.format";
+    /**
+     * The system property that sets the compression quality, from 0 for the smallest file to 1
+     * for the best JPEG image or the fastest PNG encoding, which then hardly compresses at all.
+     */
+    static final String QUALITY_PROPERTY = "bearmaps.raster.quality";
+    /** The JPEG quality when none is set: the JDK's default of 0.75 smudges street names. */
+    static final float DEFAULT_JPEG_QUALITY = 0.9f;
+
+    private final TileCache tiles;
+    private final Format format;
+    /** The compression quality, or a negative number to leave it to the writer. */
+    private final float quality;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a renderer configured by the system properties, drawing on the common pool.
+     * @param tiles Where to get tile images from.
+     */
+    public RasterRenderer(TileCache tiles) {
+        this(tiles, formatProperty(), qualityProperty(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a renderer.
+     * @param tiles Where to get tile images from.
+     * @param format The format to encode images in.
+     * @param quality The compression quality from 0 to 1, or a negative number for the default.
+     * @param pool The pool to draw rows of tiles on.
+     */
+    RasterRenderer(TileCache tiles, Format format, float quality, ForkJoinPool pool) {
+        this.tiles = tiles;
+        this.format = format;
+        this.quality = quality < 0 && format == Format.JPEG ? DEFAULT_JPEG_QUALITY : quality;
+        this.pool = pool;
+    }
+
+    private static Format formatProperty() {
+        String name = System.getProperty(FORMAT_PROPERTY);
+        if (name == null) {
+            return Format.PNG;
+        }
+        try {
+            return Format.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown raster format " + name + ", using PNG.");
+            return Format.PNG;
+        }
+    }
+
+    private static float qualityProperty() {
+        String quality = System.getProperty(QUALITY_PROPERTY);
+        if (quality == null) {
+            return -1;
+        }
+        try {
+            return Math.min(1, Float.parseFloat(quality));
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /** Returns the format images are encoded in. */
+    Format format() {
+        return format;
+    }
+
+    /**
+     * Draws a grid of tiles into one image, a row of tiles per task.
+     * @param renderGrid The file names of the tiles, row by row.
+     * @return The image, TILE_SIZE pixels per tile each way.
+     */
+    BufferedImage composite(String[][] renderGrid) {
+        int rows = renderGrid.length;
+        int columns = renderGrid[0].length;
+        BufferedImage img = new BufferedImage(columns * MapServer.TILE_SIZE,
+                rows * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        if (rows == 1) {
+            drawRow(img, renderGrid, 0);
+            return img;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int r = 0; r < rows; r += 1) {
+            final int row = r;
+            tasks.add(pool.submit(() -> drawRow(img, renderGrid, row)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return img;
+    }
+
+    /** Draws one row of tiles. Rows cover separate pixels, so they can be drawn concurrently. */
+    private void drawRow(BufferedImage img, String[][] renderGrid, int r) {
+        Graphics graphic = img.createGraphics();
+        try {
+            for (int c = 0; c < renderGrid[r].length; c += 1) {
+                graphic.drawImage(tiles.get(renderGrid[r][c]), c * MapServer.TILE_SIZE,
+                        r * MapServer.TILE_SIZE, null);
+            }
+        } finally {
+            graphic.dispose();
+        }
+    }
+
+    /**
+     * Encodes an image in this renderer's format.
+     * @param img The image.
+     * @param os Where to write the encoded image; it is not closed.
+     * @throws IOException If os cannot be written to.
+     */
+    void encode(BufferedImage img, OutputStream os) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format.imageType());
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        /* Unlike ImageIO.createImageOutputStream, never buffers through a temporary file. */
+        ImageOutputStream out = new MemoryCacheImageOutputStream(os);
+        try {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            /* The PNG writer only takes a compression setting since Java 9. */
+            if (quality >= 0 && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the JSON for a /raster response: the rasterer's results with the image Base64
+     * encoded as b64_encoded_image_data. The image is encoded straight into os as it is
+     * written, instead of into a String that is then copied into a bigger JSON String.
+     * @param rasteredImageParams The results, which must not include the image.
+     * @param image The encoded image.
+     * @param os Where to write the JSON, in UTF-8; it is flushed but not closed.
+     * @throws IOException If os cannot be written to.
+     */
+    static void writeJson(Map<String, Object> rasteredImageParams, byte[] image,
+                          OutputStream os) throws IOException {
+        String json = new Gson().toJson(rasteredImageParams);
+        /* Put the image in as the last field, before the closing brace. */
+        StringBuilder head = new StringBuilder(json.substring(0, json.length() - 1));
+        if (!rasteredImageParams.isEmpty()) {
+            head.append(',');
+        }
+        head.append("\"b64_encoded_image_data\":\"");
+        os.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        /* Closing the encoder writes its last few characters, but must not close os. */
+        OutputStream b64 = Base64.getEncoder().wrap(new FilterOutputStream(os) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        b64.write(image);
+        b64.close();
+        os.write("\"}".getBytes(StandardCharsets.UTF_8));
+        os.flush();
+    }
+}
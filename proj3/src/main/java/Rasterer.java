@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -6,11 +7,37 @@ import java.util.Map;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ *
+ * The tiles form a quadtree, but there is no need to walk it: at depth d the map is a grid of
+ * 2^d by 2^d equal tiles, so the depth and the range of tiles a query needs follow from a little
+ * arithmetic. The size of the tiles and the names of their files are worked out once per depth.
  */
 public class Rasterer {
+    private static final double ROOT_LON_WIDTH = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+    private static final double ROOT_LAT_HEIGHT = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+
+    /** lonDPP[d] is the longitudinal distance per pixel of the tiles at depth d. */
+    private final double[] lonDPP = new double[TileCache.MAX_DEPTH + 1];
+    /** The width in degrees of longitude of the tiles at each depth. */
+    private final double[] tileLonWidth = new double[TileCache.MAX_DEPTH + 1];
+    /** The height in degrees of latitude of the tiles at each depth. */
+    private final double[] tileLatHeight = new double[TileCache.MAX_DEPTH + 1];
+    /** tileNames[d][y][x] is the file name of the tile at depth d, row y and column x. */
+    private final String[][][] tileNames = new String[TileCache.MAX_DEPTH + 1][][];
 
     public Rasterer() {
-        // YOUR CODE HERE
+        for (int d = 0; d <= TileCache.MAX_DEPTH; d += 1) {
+            int tiles = 1 << d;
+            tileLonWidth[d] = ROOT_LON_WIDTH / tiles;
+            tileLatHeight[d] = ROOT_LAT_HEIGHT / tiles;
+            lonDPP[d] = tileLonWidth[d] / MapServer.TILE_SIZE;
+            tileNames[d] = new String[tiles][tiles];
+            for (int y = 0; y < tiles; y += 1) {
+                for (int x = 0; x < tiles; x += 1) {
+                    tileNames[d][y][x] = TileCache.tileName(d, x, y).intern();
+                }
+            }
+        }
     }
 
     /**
@@ -42,11 +69,63 @@ public class Rasterer {
      *                    forget to set this to true on success! <br>
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
-        // System.out.println(params);
+        double ullon = params.get("ullon");
+        double ullat = params.get("ullat");
+        double lrlon = params.get("lrlon");
+        double lrlat = params.get("lrlat");
+        double w = params.get("w");
         Map<String, Object> results = new HashMap<>();
-        System.out.println("Since you haven't implemented getMapRaster, nothing is displayed in "
-                           + "your browser.");
+
+        if (ullon >= lrlon || lrlat >= ullat || w <= 0
+                || ullon >= MapServer.ROOT_LRLON || lrlon <= MapServer.ROOT_ULLON
+                || ullat <= MapServer.ROOT_LRLAT || lrlat >= MapServer.ROOT_ULLAT) {
+            results.put("render_grid", new String[0][0]);
+            results.put("raster_ul_lon", 0.0);
+            results.put("raster_ul_lat", 0.0);
+            results.put("raster_lr_lon", 0.0);
+            results.put("raster_lr_lat", 0.0);
+            results.put("depth", 0);
+            results.put("query_success", false);
+            return results;
+        }
+
+        int depth = depth((lrlon - ullon) / w);
+        int last = (1 << depth) - 1;
+        int xMin = clamp((ullon - MapServer.ROOT_ULLON) / tileLonWidth[depth], last);
+        int xMax = clamp((lrlon - MapServer.ROOT_ULLON) / tileLonWidth[depth], last);
+        int yMin = clamp((MapServer.ROOT_ULLAT - ullat) / tileLatHeight[depth], last);
+        int yMax = clamp((MapServer.ROOT_ULLAT - lrlat) / tileLatHeight[depth], last);
+
+        String[][] grid = new String[yMax - yMin + 1][];
+        for (int y = yMin; y <= yMax; y += 1) {
+            grid[y - yMin] = Arrays.copyOfRange(tileNames[depth][y], xMin, xMax + 1);
+        }
+        results.put("render_grid", grid);
+        results.put("raster_ul_lon", MapServer.ROOT_ULLON + xMin * tileLonWidth[depth]);
+        results.put("raster_ul_lat", MapServer.ROOT_ULLAT - yMin * tileLatHeight[depth]);
+        results.put("raster_lr_lon", MapServer.ROOT_ULLON + (xMax + 1) * tileLonWidth[depth]);
+        results.put("raster_lr_lat", MapServer.ROOT_ULLAT - (yMax + 1) * tileLatHeight[depth]);
+        results.put("depth", depth);
+        results.put("query_success", true);
         return results;
     }
 
+    /**
+     * Returns the shallowest depth whose tiles have at most a given LonDPP, or the deepest
+     * depth if none are that fine.
+     */
+    private int depth(double queryLonDPP) {
+        for (int d = 0; d < TileCache.MAX_DEPTH; d += 1) {
+            if (lonDPP[d] <= queryLonDPP) {
+                return d;
+            }
+        }
+        return TileCache.MAX_DEPTH;
+    }
+
+    /** Returns the tile a position, measured in tiles from the root's corner, falls in. */
+    private static int clamp(double tiles, int last) {
+        return (int) Math.max(0, Math.min(last, Math.floor(tiles)));
+    }
+
 }
@@ -0,0 +1,112 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the work of MapServer's requests on two bounded pools of threads: one for heavy work,
+ * such as putting together and encoding raster images or searching the graph for a route, and
+ * one for light work, such as location search. However many heavy requests come in at once,
+ * only a few are worked on and a few more wait, so they can neither starve light requests of
+ * threads nor pile up without end. Work that finds its pool's queue full is turned away at once
+ * with a RejectedExecutionException, which MapServer answers with HTTP 429 Too Many Requests so
+ * that the client can back off.
+ */
+public class RequestExecutor {
+    /** The HTTP status for a request that was turned away. */
+    static final int TOO_MANY_REQUESTS = 429;
+
+    /** The kinds of work, each with its own pool. */
+    public enum Kind {
+        HEAVY, LIGHT
+    }
+
+    private final ThreadPoolExecutor heavy;
+    private final ThreadPoolExecutor light;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates pools sized for this machine: a heavy thread per core with room for two heavy
+     * tasks per core to wait, and four light threads per core with room for 256 to wait.
+     */
+    public RequestExecutor() {
+        this(Runtime.getRuntime().availableProcessors(),
+                2 * Runtime.getRuntime().availableProcessors(),
+                4 * Runtime.getRuntime().availableProcessors(), 256);
+    }
+
+    /**
+     * Creates the pools.
+     * @param heavyThreads How many heavy tasks to run at once.
+     * @param heavyQueue How many more heavy tasks may wait.
+     * @param lightThreads How many light tasks to run at once.
+     * @param lightQueue How many more light tasks may wait.
+     */
+    RequestExecutor(int heavyThreads, int heavyQueue, int lightThreads, int lightQueue) {
+        heavy = pool("heavy", heavyThreads, heavyQueue);
+        light = pool("light", lightThreads, lightQueue);
+    }
+
+    private static ThreadPoolExecutor pool(String name, int threads, int queue) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs a task on the pool for its kind of work and waits for it to finish.
+     * @param kind The kind of work.
+     * @param task The task.
+     * @return What the task returned.
+     * @throws RejectedExecutionException If the pool's queue is full.
+     * @throws Exception Whatever the task threw.
+     */
+    <T> T run(Kind kind, Callable<T> task) throws Exception {
+        Future<T> future;
+        try {
+            future = (kind == Kind.HEAVY ? heavy : light).submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            /* Rethrow what the task threw, e.g. Spark's halt(), as if it ran on this thread. */
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /** Returns how many tasks were turned away so far. */
+    long rejected() {
+        return rejected.get();
+    }
+
+    /** Returns how many tasks of a kind are running or waiting. */
+    int pending(Kind kind) {
+        ThreadPoolExecutor pool = kind == Kind.HEAVY ? heavy : light;
+        return pool.getActiveCount() + pool.getQueue().size();
+    }
+
+    /** Stops both pools once the tasks they have are done. */
+    void shutdown() {
+        heavy.shutdown();
+        light.shutdown();
+    }
+}
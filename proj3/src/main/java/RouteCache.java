@@ -0,0 +1,164 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least recently used cache of routes, keyed by the vertices the start and end
+ * points snap to. Popular routes are asked for over and over from points a few feet apart,
+ * which all snap to the same pair of vertices, so only the first of them has to search.
+ *
+ * The cache holds at most a given number of routes and a given number of path vertices in all,
+ * whichever runs out first. It belongs to one graph and Router.Metric at a time: asking it about
+ * any other graph, such as one that has just been reloaded, or after the metric changed,
+ * empties it first.
+ */
+public class RouteCache {
+    /** How many routes to keep by default. */
+    static final int DEFAULT_CAPACITY = 1024;
+    /** How many path vertices, summed over all routes, to keep by default. */
+    static final int DEFAULT_MAX_VERTICES = 1 << 20;
+
+    /** A path with its directions, both unmodifiable. */
+    static class Route {
+        private static final AtomicLong VERSIONS = new AtomicLong();
+
+        final List<Long> path;
+        final List<Router.NavigationDirection> directions;
+        /** Tells this route apart from every other, or 0 if its path is empty. */
+        final long version;
+
+        Route(List<Long> path, List<Router.NavigationDirection> directions) {
+            this.path = Collections.unmodifiableList(path);
+            this.directions = directions == null
+                    ? Collections.<Router.NavigationDirection>emptyList()
+                    : Collections.unmodifiableList(directions);
+            version = path.isEmpty() ? 0 : VERSIONS.incrementAndGet();
+        }
+    }
+
+    private final int capacity;
+    private final int maxVertices;
+    /** Routes by packed (start, end) pair, least recently used first. */
+    private final LinkedHashMap<Long, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+    private GraphDB graph;
+    private Router.Metric metric;
+    private long vertices;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Creates a cache with the default bounds. */
+    public RouteCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_VERTICES);
+    }
+
+    /**
+     * Creates a cache.
+     * @param capacity How many routes to keep at most.
+     * @param maxVertices How many path vertices to keep at most, over all routes.
+     */
+    RouteCache(int capacity, int maxVertices) {
+        this.capacity = capacity;
+        this.maxVertices = maxVertices;
+    }
+
+    /**
+     * Returns the route between the vertices closest to two locations, searching for it only if
+     * it is not cached.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @return The route, with an empty path if there is none.
+     */
+    Route route(GraphDB g, double stlon, double stlat, double destlon, double destlat) {
+        int s = g.indexOf(g.closest(stlon, stlat));
+        int t = g.indexOf(g.closest(destlon, destlat));
+        return route(g, s, t);
+    }
+
+    /**
+     * Returns the route between two vertices, searching for it only if it is not cached.
+     * @param g The graph to use.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @return The route, with an empty path if there is none.
+     */
+    Route route(GraphDB g, int s, int t) {
+        long key = ((long) s << 32) | (t & 0xffffffffL);
+        Router.Metric m = Router.metric();
+        synchronized (this) {
+            if (g != graph || m != metric) {
+                clear();
+                graph = g;
+                metric = m;
+            }
+            Route cached = routes.get(key);
+            if (cached != null) {
+                hits += 1;
+                return cached;
+            }
+            misses += 1;
+        }
+        /* Search without the lock, so that other routes can be looked up meanwhile. */
+        List<Long> path = Router.shortestPath(g, s, t, Router.algorithm(), m);
+        Route route = new Route(path, Router.routeDirections(g, path));
+        synchronized (this) {
+            if (g == graph && m == metric && path.size() <= maxVertices) {
+                Route old = routes.put(key, route);
+                if (old != null) {
+                    vertices -= old.path.size();
+                }
+                vertices += path.size();
+                evict();
+            }
+        }
+        return route;
+    }
+
+    /** Drops least recently used routes until the cache is within its bounds. */
+    private void evict() {
+        Iterator<Map.Entry<Long, Route>> it = routes.entrySet().iterator();
+        while (routes.size() > capacity || vertices > maxVertices) {
+            vertices -= it.next().getValue().path.size();
+            it.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Empties the cache, but keeps its counters. */
+    synchronized void clear() {
+        routes.clear();
+        vertices = 0;
+    }
+
+    /** Returns how many routes are cached. */
+    synchronized int size() {
+        return routes.size();
+    }
+
+    /** Returns how many lookups found their route cached. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns how many lookups had to search. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns how many routes were dropped to stay within bounds. */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RouteCache: %d routes, %d vertices, %d hits, %d misses, "
+                + "%d evictions", routes.size(), vertices, hits, misses, evictions);
+    }
+}
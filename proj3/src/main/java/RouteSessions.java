@@ -0,0 +1,145 @@
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The current route and isochrone of each user of the MapServer, so that users do not see or
+ * clear each other's routes. Users are told apart by a key, such as their HTTP session id, and
+ * a user who has not been heard from for a while is forgotten. Every method may be called from
+ * any number of request threads at once.
+ */
+public class RouteSessions {
+    /** How long to remember a user who has not made a request, by default. */
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /** One user's route and isochrone, and when that user was last heard from. */
+    private static class Session {
+        volatile RouteCache.Route route = NO_ROUTE;
+        volatile Isochrone isochrone;
+        volatile long lastAccess;
+    }
+
+    /** The route of a user who has none. */
+    static final RouteCache.Route NO_ROUTE = new RouteCache.Route(
+            Collections.<Long>emptyList(), Collections.<Router.NavigationDirection>emptyList());
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private volatile long lastSweep;
+
+    /** Creates an empty set of sessions that forgets users after DEFAULT_TTL_MILLIS. */
+    public RouteSessions() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Creates an empty set of sessions.
+     * @param ttlMillis How long to remember a user who has not made a request.
+     */
+    RouteSessions(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns a user's current route.
+     * @param key The user.
+     * @param now The current time in milliseconds.
+     * @return The route, which has an empty path if the user has none.
+     */
+    RouteCache.Route route(String key, long now) {
+        Session session = sessions.get(key);
+        if (session == null || expired(session, now)) {
+            return NO_ROUTE;
+        }
+        session.lastAccess = now;
+        return session.route;
+    }
+
+    /**
+     * Sets a user's current route.
+     * @param key The user.
+     * @param route The new route.
+     * @param now The current time in milliseconds.
+     */
+    void setRoute(String key, RouteCache.Route route, long now) {
+        /* Updated inside compute, so that a concurrent sweep cannot drop it half way. */
+        sessions.compute(key, (k, session) -> {
+            if (session == null) {
+                session = new Session();
+            }
+            session.route = route;
+            session.lastAccess = now;
+            return session;
+        });
+        sweep(now);
+    }
+
+    /**
+     * Returns a user's current isochrone.
+     * @param key The user.
+     * @param now The current time in milliseconds.
+     * @return The isochrone, or null if the user has none.
+     */
+    Isochrone isochrone(String key, long now) {
+        Session session = sessions.get(key);
+        if (session == null || expired(session, now)) {
+            return null;
+        }
+        session.lastAccess = now;
+        return session.isochrone;
+    }
+
+    /**
+     * Sets a user's current isochrone.
+     * @param key The user.
+     * @param isochrone The new isochrone.
+     * @param now The current time in milliseconds.
+     */
+    void setIsochrone(String key, Isochrone isochrone, long now) {
+        sessions.compute(key, (k, session) -> {
+            if (session == null) {
+                session = new Session();
+            }
+            session.isochrone = isochrone;
+            session.lastAccess = now;
+            return session;
+        });
+        sweep(now);
+    }
+
+    /**
+     * Clears a user's current route, and isochrone.
+     * @param key The user.
+     */
+    void clearRoute(String key) {
+        sessions.remove(key);
+    }
+
+    /** Forgets every user. */
+    void clear() {
+        sessions.clear();
+    }
+
+    /** Returns how many users are remembered, including some that may have expired. */
+    int size() {
+        return sessions.size();
+    }
+
+    private boolean expired(Session session, long now) {
+        return now - session.lastAccess > ttlMillis;
+    }
+
+    /**
+     * Forgets expired users, at most a few times per TTL so that setting routes stays cheap
+     * however many users there are.
+     */
+    private void sweep(long now) {
+        if (now - lastSweep < ttlMillis / 4) {
+            return;
+        }
+        lastSweep = now;
+        for (String key : sessions.keySet()) {
+            sessions.computeIfPresent(key, (k, session) -> expired(session, now) ? null : session);
+        }
+    }
+}
@@ -1,5 +1,10 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,6 +17,120 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /** The ways Router can find shortest paths. They all find paths of the same length. */
+    public enum Algorithm {
+        /** A* with the straight-line distance as heuristic. */
+        ASTAR,
+        /** A* with a heuristic from precomputed distances to a few landmarks. */
+        ALT,
+        /** A* from both ends at once, meeting in the middle. */
+        BIDIRECTIONAL,
+        /** Bidirectional search on a contraction hierarchy, which needs preprocessing. */
+        CH
+    }
+
+    /** What a shortest path is shortest in. */
+    public enum Metric {
+        /** The length of the path in miles. */
+        DISTANCE,
+        /** The time it takes to drive the path at the speed limits, in seconds. */
+        TIME
+    }
+
+    /** The system property that picks the algorithm, e.g. -Dbearmaps.router=ch. */
+    static final String ALGORITHM_PROPERTY = "bearmaps.router";
+    /** The system property that picks the metric, e.g. -Dbearmaps.router.metric=time. */
+    static final String METRIC_PROPERTY = "bearmaps.router.metric";
+
+    /** Working memory for searches, one per thread, so concurrent requests can all route. */
+    private static final ThreadLocal<SearchSpace> SEARCH_SPACE = new ThreadLocal<>();
+    /** Working memory for the backward half of bidirectional searches. */
+    private static final ThreadLocal<SearchSpace> REVERSE_SEARCH_SPACE = new ThreadLocal<>();
+    private static volatile Algorithm algorithm = Algorithm.ASTAR;
+    private static volatile Metric metric = Metric.DISTANCE;
+
+    /**
+     * Picks the algorithm shortestPath uses from now on.
+     * @param a The algorithm.
+     */
+    public static void setAlgorithm(Algorithm a) {
+        algorithm = a;
+    }
+
+    /**
+     * Returns the algorithm shortestPath uses.
+     * @return The algorithm.
+     */
+    public static Algorithm algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Picks the metric shortestPath minimizes from now on.
+     * @param m The metric.
+     */
+    public static void setMetric(Metric m) {
+        metric = m;
+    }
+
+    /**
+     * Returns the metric shortestPath minimizes.
+     * @return The metric.
+     */
+    public static Metric metric() {
+        return metric;
+    }
+
+    /**
+     * Picks the algorithm and metric named by the bearmaps.router and bearmaps.router.metric
+     * system properties, if they are set, and does any preprocessing they need for a graph,
+     * so the first request is not slow.
+     * @param g The graph that will be routed on.
+     */
+    static void configure(GraphDB g) {
+        String name = System.getProperty(ALGORITHM_PROPERTY);
+        if (name != null) {
+            try {
+                setAlgorithm(Algorithm.valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown router " + name + ", using " + algorithm + ".");
+            }
+        }
+        String metricName = System.getProperty(METRIC_PROPERTY);
+        if (metricName != null) {
+            try {
+                setMetric(Metric.valueOf(metricName.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown metric " + metricName + ", using " + metric + ".");
+            }
+        }
+        prepare(g, algorithm, metric);
+    }
+
+    /**
+     * Does the preprocessing an algorithm needs for a graph, if it has not been done yet.
+     * @param g The graph.
+     * @param a The algorithm.
+     */
+    static void prepare(GraphDB g, Algorithm a) {
+        prepare(g, a, metric);
+    }
+
+    /**
+     * Does the preprocessing an algorithm needs for a graph and metric, if it has not been
+     * done yet.
+     * @param g The graph.
+     * @param a The algorithm.
+     * @param m The metric.
+     */
+    static void prepare(GraphDB g, Algorithm a, Metric m) {
+        if (a == Algorithm.CH) {
+            g.contractionHierarchy(m);
+        } else if (a == Algorithm.ALT) {
+            g.landmarks();
+        }
+    }
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
@@ -25,11 +144,407 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        return null; // FIXME
+        int s = g.indexOf(g.closest(stlon, stlat));
+        int t = g.indexOf(g.closest(destlon, destlat));
+        return shortestPath(g, s, t);
+    }
+
+    /**
+     * Returns the shortest path between two vertices.
+     * @param g The graph to use.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @return The ids of the vertices on the path, or an empty list if there is none.
+     */
+    static List<Long> shortestPath(GraphDB g, int s, int t) {
+        return shortestPath(g, s, t, algorithm, metric);
+    }
+
+    /**
+     * Returns the shortest path between two vertices, found with a given algorithm.
+     * @param g The graph to use.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @param a The algorithm to use.
+     * @return The ids of the vertices on the path, or an empty list if there is none.
+     */
+    static List<Long> shortestPath(GraphDB g, int s, int t, Algorithm a) {
+        return shortestPath(g, s, t, a, metric);
+    }
+
+    /**
+     * Returns the shortest path between two vertices under a metric, found with a given
+     * algorithm.
+     * @param g The graph to use.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @param a The algorithm to use.
+     * @param m The metric to minimize.
+     * @return The ids of the vertices on the path, or an empty list if there is none.
+     */
+    static List<Long> shortestPath(GraphDB g, int s, int t, Algorithm a, Metric m) {
+        if (s < 0 || t < 0) {
+            /* An endpoint that closest could not find, because the graph is empty. */
+            return new ArrayList<>();
+        }
+        if (!g.connected(s, t)) {
+            /* No search can find a path, so do not let one settle all of s's component. */
+            return new ArrayList<>();
+        }
+        SearchSpace space = searchSpace(g, SEARCH_SPACE);
+        SearchSpace reverse = searchSpace(g, REVERSE_SEARCH_SPACE);
+        switch (a) {
+            case CH:
+                return g.contractionHierarchy(m).shortestPath(s, t, space, reverse);
+            case ALT:
+                if (!aStar(g, s, t, m, space, g.landmarks())) {
+                    return new ArrayList<>();
+                }
+                return path(g, space, t);
+            case BIDIRECTIONAL:
+                int meet = bidirectionalAStar(g, s, t, m, space, reverse);
+                if (meet < 0) {
+                    return new ArrayList<>();
+                }
+                List<Long> path = path(g, space, meet);
+                for (int v = reverse.edgeTo(meet); v >= 0; v = reverse.edgeTo(v)) {
+                    path.add(g.idOf(v));
+                }
+                return path;
+            default:
+                if (!aStar(g, s, t, m, space, null)) {
+                    return new ArrayList<>();
+                }
+                return path(g, space, t);
+        }
+    }
+
+    /**
+     * Returns the cost of the shortest path from every source to every target, under Router's
+     * metric, with the sources searched one after another on the calling thread.
+     * @param g The graph to use.
+     * @param sources The indices of the start vertices.
+     * @param targets The indices of the destination vertices.
+     * @return A matrix with a row per source and a column per target; unreachable targets are
+     * Double.POSITIVE_INFINITY.
+     */
+    static double[][] distanceMatrix(GraphDB g, int[] sources, int[] targets) {
+        return distanceMatrix(g, sources, targets, metric);
+    }
+
+    /**
+     * Returns the cost of the shortest path from every source to every target, with the sources
+     * searched one after another on the calling thread. A server thread that calls this does
+     * all of the work itself, so the work stays within the bounds of the server's pools.
+     * @param g The graph to use.
+     * @param sources The indices of the start vertices.
+     * @param targets The indices of the destination vertices.
+     * @param m The metric to minimize.
+     * @return A matrix with a row per source and a column per target; unreachable targets are
+     * Double.POSITIVE_INFINITY.
+     */
+    static double[][] distanceMatrix(GraphDB g, int[] sources, int[] targets, Metric m) {
+        boolean[] isTarget = new boolean[g.vertexCount()];
+        int[] targetCounts = markTargets(g, targets, isTarget);
+        double[][] matrix = new double[sources.length][];
+        for (int row = 0; row < sources.length; row += 1) {
+            int s = sources[row];
+            matrix[row] = oneToMany(g, s, targets, isTarget, targetCounts[g.component(s)], m);
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns the cost of the shortest path from every source to every target. Each source
+     * needs one Dijkstra search, which stops once it has settled every target in its connected
+     * component, rather than one search per pair. The sources are searched in parallel, each on
+     * its worker's own search space.
+     * @param g The graph to use.
+     * @param sources The indices of the start vertices.
+     * @param targets The indices of the destination vertices.
+     * @param m The metric to minimize.
+     * @param pool The pool to search on.
+     * @return A matrix with a row per source and a column per target; unreachable targets are
+     * Double.POSITIVE_INFINITY.
+     */
+    static double[][] distanceMatrix(GraphDB g, int[] sources, int[] targets, Metric m,
+                                     ForkJoinPool pool) {
+        boolean[] isTarget = new boolean[g.vertexCount()];
+        int[] targetCounts = markTargets(g, targets, isTarget);
+        double[][] matrix = new double[sources.length][];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < sources.length; i += 1) {
+            final int row = i;
+            tasks.add(pool.submit(() -> {
+                int s = sources[row];
+                matrix[row] = oneToMany(g, s, targets, isTarget,
+                        targetCounts[g.component(s)], m);
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return matrix;
+    }
+
+    /**
+     * Marks the distinct targets in isTarget and returns how many of them each connected
+     * component holds.
+     */
+    private static int[] markTargets(GraphDB g, int[] targets, boolean[] isTarget) {
+        int[] targetCounts = new int[g.componentCount()];
+        for (int t : targets) {
+            if (!isTarget[t]) {
+                isTarget[t] = true;
+                targetCounts[g.component(t)] += 1;
+            }
+        }
+        return targetCounts;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from s until every target it can reach is settled, and reads
+     * off the cost of each target.
+     * @param isTarget Marks the targets.
+     * @param targetCount How many vertices isTarget marks in the connected component of s.
+     */
+    private static double[] oneToMany(GraphDB g, int s, int[] targets, boolean[] isTarget,
+                                      int targetCount, Metric m) {
+        SearchSpace space = searchSpace(g, SEARCH_SPACE);
+        IndexMinHeap queue = space.queue;
+        space.reach(s, 0, -1);
+        queue.put(s, 0);
+        int remaining = targetCount;
+        while (!queue.isEmpty() && remaining > 0) {
+            int v = queue.poll();
+            space.settled += 1;
+            if (isTarget[v]) {
+                remaining -= 1;
+            }
+            double dv = space.distTo(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = dv + cost(g, e, m);
+                if (d < space.distTo(w)) {
+                    space.reach(w, d, v);
+                    queue.put(w, d);
+                }
+            }
+        }
+        double[] row = new double[targets.length];
+        for (int j = 0; j < targets.length; j += 1) {
+            row[j] = space.distTo(targets[j]);
+        }
+        return row;
+    }
+
+    /**
+     * Returns every vertex within a budget of a start vertex, by running Dijkstra's algorithm
+     * from it until the next vertex would cost more than the budget.
+     * @param g The graph to use.
+     * @param s The index of the start vertex.
+     * @param budget The most a path may cost, in the units of the metric.
+     * @param m The metric to use.
+     * @return The indices of the vertices within the budget, cheapest first, starting with s.
+     */
+    static int[] reachable(GraphDB g, int s, double budget, Metric m) {
+        SearchSpace space = searchSpace(g, SEARCH_SPACE);
+        IndexMinHeap queue = space.queue;
+        space.reach(s, 0, -1);
+        queue.put(s, 0);
+        int[] reached = new int[64];
+        int count = 0;
+        while (!queue.isEmpty() && queue.peekPriority() <= budget) {
+            int v = queue.poll();
+            space.settled += 1;
+            if (count == reached.length) {
+                reached = Arrays.copyOf(reached, 2 * count);
+            }
+            reached[count] = v;
+            count += 1;
+            double dv = space.distTo(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = dv + cost(g, e, m);
+                if (d <= budget && d < space.distTo(w)) {
+                    space.reach(w, d, v);
+                    queue.put(w, d);
+                }
+            }
+        }
+        return Arrays.copyOf(reached, count);
+    }
+
+    /**
+     * Returns this thread's search space for a graph, ready for a new search.
+     * @param g The graph to be searched.
+     * @param local Which of the thread's search spaces to use.
+     * @return The search space.
+     */
+    private static SearchSpace searchSpace(GraphDB g, ThreadLocal<SearchSpace> local) {
+        SearchSpace space = local.get();
+        if (space == null || space.size() != g.vertexCount()) {
+            space = new SearchSpace(g.vertexCount());
+            local.set(space);
+        }
+        space.reset();
+        return space;
+    }
+
+    /**
+     * Returns how many vertices the last search on this thread settled, to compare searches.
+     * @return The number of vertices taken off the queues, or 0 if there was no search yet.
+     */
+    static int lastSettledCount() {
+        SearchSpace space = SEARCH_SPACE.get();
+        SearchSpace reverse = REVERSE_SEARCH_SPACE.get();
+        return (space == null ? 0 : space.settled) + (reverse == null ? 0 : reverse.settled);
+    }
+
+    /**
+     * Runs A* from s until t is settled, using distanceBound as the heuristic, or the larger
+     * of it and the landmark bound if there are landmarks. Should a vertex be reached by a
+     * shorter path after it was settled, it is simply queued again, so the result stays exact
+     * even if the heuristic is not perfectly consistent. By travel time, the bounds are
+     * divided by the highest speed limit in the graph, since no edge is driven any faster.
+     * @param g The graph to search.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @param m The metric to minimize.
+     * @param space A freshly reset search space, which holds the result.
+     * @param landmarks The landmarks of g, or null to use the straight-line distance alone.
+     * @return True if t is reachable from s.
+     */
+    static boolean aStar(GraphDB g, int s, int t, Metric m, SearchSpace space,
+                         Landmarks landmarks) {
+        IndexMinHeap queue = space.queue;
+        double perMile = costPerMile(g, m);
+        space.reach(s, 0, -1);
+        queue.put(s, perMile * heuristic(g, s, t, landmarks));
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            space.settled += 1;
+            if (v == t) {
+                return true;
+            }
+            double dv = space.distTo(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = dv + cost(g, e, m);
+                if (d < space.distTo(w)) {
+                    space.reach(w, d, v);
+                    queue.put(w, d + perMile * heuristic(g, w, t, landmarks));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs A* from s towards t and from t towards s at the same time, always advancing the
+     * search whose next vertex is closer. Both searches use the average potential
+     * p(v) = (distanceBound(v, t) - distanceBound(v, s)) / 2, forwards, and -p(v) backwards.
+     * Since the two potentials add up to zero, the searches may stop as soon as the smallest
+     * keys of their queues add up to at least the length of the best path found so far.
+     * @param g The graph to search.
+     * @param s The index of the start vertex.
+     * @param t The index of the destination vertex.
+     * @param m The metric to minimize.
+     * @param forward A freshly reset search space for the search from s.
+     * @param backward A freshly reset search space for the search from t.
+     * @return The vertex where the shortest paths from s and t meet, or -1 if there is no path.
+     */
+    static int bidirectionalAStar(GraphDB g, int s, int t, Metric m, SearchSpace forward,
+                                  SearchSpace backward) {
+        forward.reach(s, 0, -1);
+        backward.reach(t, 0, -1);
+        if (s == t) {
+            return s;
+        }
+        double perMile = costPerMile(g, m);
+        forward.queue.put(s, perMile * potential(g, s, s, t));
+        backward.queue.put(t, perMile * potential(g, t, t, s));
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (!forward.queue.isEmpty() && !backward.queue.isEmpty()) {
+            if (forward.queue.peekPriority() + backward.queue.peekPriority() >= best) {
+                break;
+            }
+            boolean isForward = forward.queue.peekPriority() <= backward.queue.peekPriority();
+            SearchSpace space = isForward ? forward : backward;
+            SearchSpace other = isForward ? backward : forward;
+            int from = isForward ? s : t;
+            int to = isForward ? t : s;
+
+            int v = space.queue.poll();
+            space.settled += 1;
+            double dv = space.distTo(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                int w = g.edgeTarget(e);
+                double d = dv + cost(g, e, m);
+                if (d < space.distTo(w)) {
+                    space.reach(w, d, v);
+                    space.queue.put(w, d + perMile * potential(g, w, from, to));
+                    double through = d + other.distTo(w);
+                    if (through < best) {
+                        best = through;
+                        meet = w;
+                    }
+                }
+            }
+        }
+        return meet;
+    }
+
+    /** Returns the cost of an edge under a metric. */
+    private static double cost(GraphDB g, int e, Metric m) {
+        return m == Metric.TIME ? g.edgeTime(e) : g.edgeLength(e);
+    }
+
+    /**
+     * Returns the least a mile can cost under a metric, which turns bounds on distance into
+     * bounds on cost.
+     */
+    private static double costPerMile(GraphDB g, Metric m) {
+        return m == Metric.TIME ? GraphDB.SECONDS_PER_HOUR / g.maxSpeed() : 1;
+    }
+
+    /** Returns the potential of v for a search from one vertex towards another. */
+    private static double potential(GraphDB g, int v, int from, int to) {
+        return (g.distanceBound(v, to) - g.distanceBound(v, from)) / 2;
+    }
+
+    /** Returns the A* heuristic: a lower bound on the distance from v to t. */
+    private static double heuristic(GraphDB g, int v, int t, Landmarks landmarks) {
+        double bound = g.distanceBound(v, t);
+        if (landmarks != null) {
+            bound = Math.max(bound, landmarks.distanceBound(v, t));
+        }
+        return bound;
+    }
+
+    /**
+     * Follows the parent pointers of a finished search back from a vertex.
+     * @param g The graph that was searched.
+     * @param space The search space holding the result.
+     * @param t The index of the last vertex of the path.
+     * @return The ids of the vertices on the path, from the start of the search to t.
+     */
+    static List<Long> path(GraphDB g, SearchSpace space, int t) {
+        List<Long> path = new ArrayList<>();
+        for (int v = t; v >= 0; v = space.edgeTo(v)) {
+            path.add(g.idOf(v));
+        }
+        Collections.reverse(path);
+        return path;
     }
 
     /**
      * Create the list of directions corresponding to a route on the graph.
+     * A new direction starts wherever the way name changes, and how sharply the route turns
+     * there, from the bearing of the edge into the vertex to the bearing of the edge out of it,
+     * picks the direction. The way of every edge is read from the edge itself, so this is one
+     * pass over the route that only allocates the directions it returns.
      * @param g The graph to use.
      * @param route The route to translate into directions. Each element
      *              corresponds to a node from the graph in the route.
@@ -37,7 +552,68 @@ public class Router {
      * route.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        return null; // FIXME
+        List<NavigationDirection> directions = new ArrayList<>();
+        if (route == null || route.size() < 2) {
+            return directions;
+        }
+        int v = g.indexOf(route.get(0));
+        int w = g.indexOf(route.get(1));
+        int e = g.edgeBetween(v, w);
+        NavigationDirection current = new NavigationDirection();
+        current.direction = NavigationDirection.START;
+        int currentName = g.edgeNameIndex(e);
+        current.way = g.wayNames.get(currentName);
+        current.distance = legLength(g, e, v, w);
+        double bearing = g.bearingAt(v, w);
+        for (int i = 2; i < route.size(); i += 1) {
+            v = w;
+            w = g.indexOf(route.get(i));
+            e = g.edgeBetween(v, w);
+            int name = g.edgeNameIndex(e);
+            double nextBearing = g.bearingAt(v, w);
+            if (name != currentName) {
+                directions.add(current);
+                current = new NavigationDirection();
+                current.direction = turn(nextBearing - bearing);
+                current.way = g.wayNames.get(name);
+                current.distance = 0;
+                currentName = name;
+            }
+            current.distance += legLength(g, e, v, w);
+            bearing = nextBearing;
+        }
+        directions.add(current);
+        return directions;
+    }
+
+    /** Returns the length of the edge from v to w, or the distance between them if none. */
+    private static double legLength(GraphDB g, int e, int v, int w) {
+        return e >= 0 ? g.edgeLength(e) : GraphDB.distance(g.lonAt(v), g.latAt(v), g.lonAt(w),
+                g.latAt(w));
+    }
+
+    /**
+     * Returns the direction for a change of bearing: straight within 15 degrees, slight within
+     * 30, a turn within 100, and sharp beyond. A negative change is to the left.
+     * @param change The bearing after the turn minus the bearing before it, in degrees.
+     */
+    private static int turn(double change) {
+        double relative = change % 360;
+        if (relative > 180) {
+            relative -= 360;
+        } else if (relative < -180) {
+            relative += 360;
+        }
+        double angle = Math.abs(relative);
+        boolean left = relative < 0;
+        if (angle <= 15) {
+            return NavigationDirection.STRAIGHT;
+        } else if (angle <= 30) {
+            return left ? NavigationDirection.SLIGHT_LEFT : NavigationDirection.SLIGHT_RIGHT;
+        } else if (angle <= 100) {
+            return left ? NavigationDirection.LEFT : NavigationDirection.RIGHT;
+        }
+        return left ? NavigationDirection.SHARP_LEFT : NavigationDirection.SHARP_RIGHT;
     }
 
 
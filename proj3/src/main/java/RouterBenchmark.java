@@ -0,0 +1,130 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the algorithms Router can use on shortest paths between random pairs of vertices:
+ * preprocessing time, query latency, vertices settled per query, memory allocated per query,
+ * and whether each finds paths as short as plain A*. Pass a different OSM file as the first
+ * argument if you like, the number of queries as the second, a comma separated list of
+ * algorithms as the third, and the metric to minimize, distance or time, as the fourth.
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int DEFAULT_QUERIES = 1000;
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        Router.Algorithm[] algorithms = Router.Algorithm.values();
+        if (args.length > 2) {
+            String[] names = args[2].split(",");
+            algorithms = new Router.Algorithm[names.length];
+            for (int i = 0; i < names.length; i += 1) {
+                algorithms[i] = Router.Algorithm.valueOf(names[i].trim().toUpperCase());
+            }
+        }
+        if (args.length > 3) {
+            Router.setMetric(Router.Metric.valueOf(args[3].trim().toUpperCase()));
+        }
+        GraphDB g = GraphDB.load(dbPath);
+        int n = g.vertexCount();
+        if (n == 0) {
+            System.out.println("No vertices in " + dbPath + ".");
+            return;
+        }
+        Random random = new Random(61);
+        int[] sources = new int[queries];
+        int[] targets = new int[queries];
+        for (int i = 0; i < queries; i += 1) {
+            sources[i] = random.nextInt(n);
+            targets[i] = random.nextInt(n);
+        }
+        double[] expected = new double[queries];
+        for (int i = 0; i < queries; i += 1) {
+            expected[i] = length(g, Router.shortestPath(g, sources[i], targets[i],
+                    Router.Algorithm.ASTAR));
+        }
+        System.out.println("Graph: " + n + " vertices, " + queries + " queries by "
+                + Router.metric().name().toLowerCase() + ".");
+        System.out.println("Algorithm     Prep (ms)   ms/query  worst ms    settled  bytes/query"
+                + "  mismatches");
+        for (Router.Algorithm a : algorithms) {
+            run(g, a, sources, targets, expected);
+        }
+    }
+
+    private static void run(GraphDB g, Router.Algorithm a, int[] sources, int[] targets,
+                            double[] expected) {
+        int queries = sources.length;
+        long start = System.nanoTime();
+        Router.prepare(g, a);
+        long prepNanos = System.nanoTime() - start;
+
+        /* Warm up. */
+        for (int i = 0; i < Math.min(queries, 100); i += 1) {
+            Router.shortestPath(g, sources[i], targets[i], a);
+        }
+
+        long settled = 0;
+        long worstNanos = 0;
+        long startBytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i += 1) {
+            long queryStart = System.nanoTime();
+            Router.shortestPath(g, sources[i], targets[i], a);
+            worstNanos = Math.max(worstNanos, System.nanoTime() - queryStart);
+            settled += Router.lastSettledCount();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocatedBytes() - startBytes;
+
+        int mismatches = 0;
+        for (int i = 0; i < queries; i += 1) {
+            double length = length(g, Router.shortestPath(g, sources[i], targets[i], a));
+            if (Math.abs(length - expected[i]) > 1e-9) {
+                mismatches += 1;
+            }
+        }
+        System.out.printf("%-12s %10.1f %10.3f %9.3f %10d %12d %11d%n", a, prepNanos / 1e6,
+                nanos / 1e6 / queries, worstNanos / 1e6, settled / queries, bytes / queries,
+                mismatches);
+    }
+
+    /**
+     * Returns the cost of a path under Router's metric: its length in miles, or its travel time
+     * in seconds. Returns -1 if there is no path.
+     */
+    private static double length(GraphDB g, List<Long> path) {
+        if (path.isEmpty()) {
+            return -1;
+        }
+        double length = 0;
+        for (int i = 1; i < path.size(); i += 1) {
+            if (Router.metric() == Router.Metric.DISTANCE) {
+                length += g.distance(path.get(i - 1), path.get(i));
+                continue;
+            }
+            int v = g.indexOf(path.get(i - 1));
+            int w = g.indexOf(path.get(i));
+            double time = Double.POSITIVE_INFINITY;
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e += 1) {
+                if (g.edgeTarget(e) == w) {
+                    time = Math.min(time, g.edgeTime(e));
+                }
+            }
+            length += time;
+        }
+        return length;
+    }
+
+    /** Returns how many bytes this thread has allocated so far, or 0 if the JVM cannot say. */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
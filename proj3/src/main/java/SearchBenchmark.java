@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Types random location names into GraphDB.locationsByPrefix one keystroke at a time, as the
+ * search box does, once as they are and once with a typo in each, and reports the latency per
+ * keystroke of exact completion and of completion that tolerates typos. Pass a different OSM
+ * file as the first argument if you like, and the number of names to type as the second.
+ */
+public class SearchBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int DEFAULT_QUERIES = 2000;
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        GraphDB g = GraphDB.load(dbPath);
+        String[] names = g.locationTrie.names;
+        if (names.length == 0) {
+            System.out.println("No locations in " + dbPath + ".");
+            return;
+        }
+
+        Random random = new Random(20);
+        String[] typed = new String[queries];
+        String[] misspelt = new String[queries];
+        for (int i = 0; i < queries; i += 1) {
+            typed[i] = GraphDB.cleanString(names[random.nextInt(names.length)]);
+            misspelt[i] = typo(typed[i], random);
+        }
+
+        /* Warm up. */
+        run(g, typed, false);
+        run(g, misspelt, true);
+
+        report("exact, as typed", run(g, typed, false));
+        report("tolerant, as typed", run(g, typed, true));
+        report("exact, with a typo", run(g, misspelt, false));
+        report("tolerant, with a typo", run(g, misspelt, true));
+    }
+
+    /** Returns a name with one character substituted, dropped or added somewhere in it. */
+    private static String typo(String name, Random random) {
+        if (name.isEmpty()) {
+            return name;
+        }
+        int at = random.nextInt(name.length());
+        char c = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        switch (random.nextInt(3)) {
+            case 0:
+                return name.substring(0, at) + c + name.substring(at + 1);
+            case 1:
+                return name.substring(0, at) + name.substring(at + 1);
+            default:
+                return name.substring(0, at) + c + name.substring(at);
+        }
+    }
+
+    /**
+     * Types every query a keystroke at a time and returns the nanoseconds each keystroke took,
+     * along with how many of the completed queries found nothing as the last element.
+     */
+    private static long[] run(GraphDB g, String[] queries, boolean tolerant) {
+        int keystrokes = 0;
+        for (String query : queries) {
+            keystrokes += query.length();
+        }
+        long[] nanos = new long[keystrokes + 1];
+        int k = 0;
+        int empty = 0;
+        for (String query : queries) {
+            int found = 0;
+            for (int i = 1; i <= query.length(); i += 1) {
+                String prefix = query.substring(0, i);
+                long start = System.nanoTime();
+                found = tolerant ? g.locationsByPrefix(prefix).size()
+                        : g.locationTrie.complete(prefix).size();
+                nanos[k] = System.nanoTime() - start;
+                k += 1;
+            }
+            if (found == 0) {
+                empty += 1;
+            }
+        }
+        nanos[keystrokes] = empty;
+        return nanos;
+    }
+
+    private static void report(String label, long[] nanos) {
+        int n = nanos.length - 1;
+        long empty = nanos[n];
+        long[] sorted = Arrays.copyOf(nanos, n);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long t : sorted) {
+            total += t;
+        }
+        System.out.printf("%-22s %8.1f us mean %8.1f us p99 %8.1f us max, %d names not found%n",
+                label, total / 1e3 / n, sorted[(int) (n * 0.99)] / 1e3, sorted[n - 1] / 1e3,
+                empty);
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * The working memory of a shortest path search over the vertex indices of a GraphDB: tentative
+ * distances, parent pointers and a priority queue. It is meant to be kept and reused, so a
+ * search allocates nothing. Rather than clearing the arrays before every search, each search
+ * gets a new generation number, and an entry only counts if it was written in the current
+ * generation.
+ */
+public class SearchSpace {
+    final IndexMinHeap queue;
+    private final double[] distTo;
+    private final int[] edgeTo;
+    /** The generation in which distTo and edgeTo of each vertex were last written. */
+    private final int[] stamp;
+    private int generation;
+    /** How many vertices have been taken off the queue in this search. */
+    int settled;
+
+    /**
+     * Creates the working memory for searches over a graph.
+     * @param size The number of vertices of the graph.
+     */
+    public SearchSpace(int size) {
+        queue = new IndexMinHeap(size);
+        distTo = new double[size];
+        edgeTo = new int[size];
+        stamp = new int[size];
+    }
+
+    /**
+     * Returns the number of vertices this space was made for.
+     * @return The number of vertices.
+     */
+    public int size() {
+        return stamp.length;
+    }
+
+    /** Forgets everything about the previous search. */
+    public void reset() {
+        queue.clear();
+        settled = 0;
+        generation += 1;
+        if (generation == 0) {
+            /* Wrapped around after 2^32 searches; old stamps could now look current. */
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Returns whether a vertex has been reached in the current search.
+     * @param v The vertex index.
+     * @return True if the vertex has a tentative distance.
+     */
+    public boolean reached(int v) {
+        return stamp[v] == generation;
+    }
+
+    /**
+     * Returns the tentative distance to a vertex.
+     * @param v The vertex index.
+     * @return The distance, or infinity if the vertex has not been reached.
+     */
+    public double distTo(int v) {
+        return stamp[v] == generation ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the vertex a vertex was reached from.
+     * @param v The vertex index.
+     * @return The previous vertex on the best known path, or -1 for the source.
+     */
+    public int edgeTo(int v) {
+        return edgeTo[v];
+    }
+
+    /**
+     * Records a new best path to a vertex.
+     * @param v The vertex index.
+     * @param d The length of the path.
+     * @param from The previous vertex on the path, or -1 for the source.
+     */
+    public void reach(int v, double d, int from) {
+        stamp[v] = generation;
+        distTo[v] = d;
+        edgeTo[v] = from;
+    }
+}
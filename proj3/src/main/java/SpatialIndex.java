@@ -0,0 +1,370 @@
+import java.util.Arrays;
+
+/**
+ * A k-d tree over a set of points given by longitude and latitude, answering nearest, k-nearest
+ * and radius queries in logarithmic time on average.
+ *
+ * Points are projected onto the unit sphere, i.e. to (x, y, z), so that the straight-line
+ * (chord) distance between two projected points grows with their great-circle distance.
+ * Comparing chords therefore ranks points exactly like GraphDB.distance does, without any
+ * trigonometry per comparison.
+ *
+ * The tree is stored implicitly: the subtree over positions lo .. hi - 1 has its splitting
+ * point at the middle position, with the left subtree before it and the right one after it.
+ * Coordinates are copied into tree order so a query walks contiguous memory.
+ */
+public class SpatialIndex {
+    /** Radius of the earth in miles, as used by GraphDB.distance. */
+    private static final double EARTH_RADIUS = 3963;
+    /** Subtrees at most this big are scanned instead of split further. */
+    private static final int LEAF_SIZE = 8;
+
+    /** The index of the point stored at each tree position. */
+    private final int[] points;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    /** The axis (0, 1 or 2 for x, y or z) each internal position splits on. */
+    private final byte[] axes;
+
+    /** Each thread's query state, so that threads can query the index at the same time. */
+    private final ThreadLocal<Query> queries = ThreadLocal.withInitial(Query::new);
+
+    /**
+     * Builds the index.
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points; point i is (lons[i], lats[i]).
+     */
+    public SpatialIndex(double[] lons, double[] lats) {
+        int n = lons.length;
+        points = new int[n];
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        axes = new byte[n];
+        for (int i = 0; i < n; i += 1) {
+            points[i] = i;
+            double phi = Math.toRadians(lats[i]);
+            double lambda = Math.toRadians(lons[i]);
+            xs[i] = Math.cos(phi) * Math.cos(lambda);
+            ys[i] = Math.cos(phi) * Math.sin(lambda);
+            zs[i] = Math.sin(phi);
+        }
+        build(0, n);
+    }
+
+    /**
+     * Returns the number of points in the index.
+     * @return The number of points.
+     */
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * Finds the point closest to a location by great-circle distance. Ties go to the lowest
+     * point index.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @return The index of the closest point, or -1 if the index is empty.
+     */
+    public int nearest(double lon, double lat) {
+        int[] result = nearest(lon, lat, 1);
+        return result.length == 0 ? -1 : result[0];
+    }
+
+    /**
+     * Finds the k points closest to a location by great-circle distance.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param k How many points to find.
+     * @return The indices of the min(k, size()) closest points, closest first.
+     */
+    public int[] nearest(double lon, double lat, int k) {
+        Query q = queries.get();
+        q.project(lon, lat);
+        q.heapCapacity = Math.min(k, points.length);
+        if (q.heap == null || q.heap.length < q.heapCapacity) {
+            q.heap = new int[q.heapCapacity];
+            q.heapKeys = new double[q.heapCapacity];
+        }
+        q.heapSize = 0;
+        if (q.heapCapacity > 0) {
+            searchNearest(q, 0, points.length);
+        }
+        int[] result = new int[q.heapSize];
+        for (int i = q.heapSize - 1; i >= 0; i -= 1) {
+            result[i] = points[q.heap[0]];
+            popHeap(q);
+        }
+        return result;
+    }
+
+    /**
+     * Finds all points within a great-circle distance of a location.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param miles The search radius in miles.
+     * @return The indices of the points within the radius, in no particular order.
+     */
+    public int[] within(double lon, double lat, double miles) {
+        Query q = queries.get();
+        q.project(lon, lat);
+        double angle = Math.min(miles / EARTH_RADIUS, Math.PI);
+        double chord = 2 * Math.sin(angle / 2);
+        q.found = new int[16];
+        q.foundCount = 0;
+        searchWithin(q, 0, points.length, chord * chord);
+        int[] result = Arrays.copyOf(q.found, q.foundCount);
+        q.found = null;
+        return result;
+    }
+
+    /** Collects the points within limit (a squared chord) of the query. */
+    private void searchWithin(Query q, int lo, int hi, double limit) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i += 1) {
+                if (distanceSquared(q, i) <= limit) {
+                    q.addFound(points[i]);
+                }
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (distanceSquared(q, mid) <= limit) {
+            q.addFound(points[mid]);
+        }
+        double diff = axisDifference(q, mid);
+        if (diff <= 0 || diff * diff <= limit) {
+            searchWithin(q, lo, mid, limit);
+        }
+        if (diff >= 0 || diff * diff <= limit) {
+            searchWithin(q, mid + 1, hi, limit);
+        }
+    }
+
+    /** Looks for points closer than the farthest point in the heap. */
+    private void searchNearest(Query q, int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i += 1) {
+                offer(q, i, distanceSquared(q, i));
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        offer(q, mid, distanceSquared(q, mid));
+        double diff = axisDifference(q, mid);
+        /* Visit the side the query is on first; the other side only if it can still help. */
+        if (diff < 0) {
+            searchNearest(q, lo, mid);
+            if (q.heapSize < q.heapCapacity || diff * diff <= q.heapKeys[0]) {
+                searchNearest(q, mid + 1, hi);
+            }
+        } else {
+            searchNearest(q, mid + 1, hi);
+            if (q.heapSize < q.heapCapacity || diff * diff <= q.heapKeys[0]) {
+                searchNearest(q, lo, mid);
+            }
+        }
+    }
+
+    /**
+     * Offers the point at a tree position to the bounded max-heap of the best points so far.
+     * Between equally distant points the one with the lower index wins.
+     */
+    private void offer(Query q, int position, double d) {
+        if (q.heapSize < q.heapCapacity) {
+            q.heap[q.heapSize] = position;
+            q.heapKeys[q.heapSize] = d;
+            q.heapSize += 1;
+            siftUp(q, q.heapSize - 1);
+        } else if (worse(q.heap[0], q.heapKeys[0], position, d)) {
+            q.heap[0] = position;
+            q.heapKeys[0] = d;
+            siftDown(q, 0);
+        }
+    }
+
+    /** Returns whether the point at position a (at distance da) is worse than b. */
+    private boolean worse(int a, double da, int b, double db) {
+        return da > db || (da == db && points[a] > points[b]);
+    }
+
+    private void siftUp(Query q, int i) {
+        int[] heap = q.heap;
+        double[] keys = q.heapKeys;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(heap[i], keys[i], heap[parent], keys[parent])) {
+                return;
+            }
+            q.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(Query q, int i) {
+        int[] heap = q.heap;
+        double[] keys = q.heapKeys;
+        while (2 * i + 1 < q.heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < q.heapSize
+                    && worse(heap[child + 1], keys[child + 1], heap[child], keys[child])) {
+                child += 1;
+            }
+            if (!worse(heap[child], keys[child], heap[i], keys[i])) {
+                return;
+            }
+            q.swap(i, child);
+            i = child;
+        }
+    }
+
+    private void popHeap(Query q) {
+        q.heapSize -= 1;
+        q.heap[0] = q.heap[q.heapSize];
+        q.heapKeys[0] = q.heapKeys[q.heapSize];
+        siftDown(q, 0);
+    }
+
+    /** Returns the squared chord between the query and the point at a tree position. */
+    private double distanceSquared(Query q, int position) {
+        double dx = xs[position] - q.x;
+        double dy = ys[position] - q.y;
+        double dz = zs[position] - q.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /** Returns how far the query is past the splitting plane at a tree position. */
+    private double axisDifference(Query q, int position) {
+        switch (axes[position]) {
+            case 0:
+                return q.x - xs[position];
+            case 1:
+                return q.y - ys[position];
+            default:
+                return q.z - zs[position];
+        }
+    }
+
+    /** Arranges positions lo .. hi - 1 into a subtree. */
+    private void build(int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            return;
+        }
+        byte axis = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        axes[mid] = axis;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private byte widestAxis(int lo, int hi) {
+        double[] spread = new double[3];
+        double[][] coordinates = {xs, ys, zs};
+        for (int a = 0; a < 3; a += 1) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i += 1) {
+                min = Math.min(min, coordinates[a][i]);
+                max = Math.max(max, coordinates[a][i]);
+            }
+            spread[a] = max - min;
+        }
+        if (spread[0] >= spread[1] && spread[0] >= spread[2]) {
+            return 0;
+        }
+        return (byte) (spread[1] >= spread[2] ? 1 : 2);
+    }
+
+    /**
+     * Quickselect: rearranges positions lo .. hi so that position k holds the point that
+     * belongs there in sorted order along an axis, with no greater points before it and no
+     * smaller ones after it.
+     */
+    private void select(int lo, int hi, int k, byte axis) {
+        double[] c = axis == 0 ? xs : axis == 1 ? ys : zs;
+        while (lo < hi) {
+            double pivot = c[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (c[i] < pivot) {
+                    i += 1;
+                }
+                while (c[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swapPoints(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swapPoints(int i, int j) {
+        int p = points[i];
+        points[i] = points[j];
+        points[j] = p;
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        t = zs[i];
+        zs[i] = zs[j];
+        zs[j] = t;
+    }
+
+    /**
+     * The state of one query: the projected location, the bounded heap of the best points so
+     * far, and the points found by a radius search. The heap buffers are kept between queries.
+     */
+    private static class Query {
+        private double x;
+        private double y;
+        private double z;
+        private int[] heap;
+        private double[] heapKeys;
+        private int heapSize;
+        private int heapCapacity;
+        private int[] found;
+        private int foundCount;
+
+        private void project(double lon, double lat) {
+            double phi = Math.toRadians(lat);
+            double lambda = Math.toRadians(lon);
+            x = Math.cos(phi) * Math.cos(lambda);
+            y = Math.cos(phi) * Math.sin(lambda);
+            z = Math.sin(phi);
+        }
+
+        private void addFound(int point) {
+            if (foundCount == found.length) {
+                found = Arrays.copyOf(found, 2 * foundCount);
+            }
+            found[foundCount] = point;
+            foundCount += 1;
+        }
+
+        private void swap(int i, int j) {
+            int p = heap[i];
+            heap[i] = heap[j];
+            heap[j] = p;
+            double d = heapKeys[i];
+            heapKeys[i] = heapKeys[j];
+            heapKeys[j] = d;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.File;
+
+/**
+ * Compares how long it takes to build the GraphDB from the OSM XML file against loading it
+ * from its binary snapshot. Pass a different OSM file as the first argument if you like, and
+ * the number of rounds as the second.
+ */
+public class StartupBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final int DEFAULT_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        File source = new File(dbPath);
+        if (!source.isFile()) {
+            System.out.println("Cannot find " + dbPath + ".");
+            return;
+        }
+        File snapshot = GraphSnapshot.snapshotFile(dbPath);
+
+        /* Warm up both paths once, which also writes a fresh snapshot. */
+        GraphDB g = new GraphDB(dbPath);
+        GraphSnapshot.write(g, snapshot, source);
+        GraphSnapshot.read(snapshot, source);
+
+        long xmlNanos = 0;
+        long snapshotNanos = 0;
+        for (int i = 0; i < rounds; i += 1) {
+            long start = System.nanoTime();
+            g = new GraphDB(dbPath);
+            xmlNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            g = GraphSnapshot.read(snapshot, source);
+            snapshotNanos += System.nanoTime() - start;
+        }
+
+        System.out.println("Graph: " + g.vertexCount() + " vertices, snapshot is "
+                + snapshot.length() / 1024 + " KB.");
+        System.out.printf("XML parse:     %8.1f ms per load%n", xmlNanos / 1e6 / rounds);
+        System.out.printf("Snapshot load: %8.1f ms per load%n", snapshotNanos / 1e6 / rounds);
+        System.out.printf("Speedup:       %8.1fx%n", (double) xmlNanos / snapshotNanos);
+    }
+}
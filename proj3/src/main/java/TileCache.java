@@ -0,0 +1,207 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * A bounded cache of decoded map tiles, so that panning around the map does not read and decode
+ * the same PNG files over and over. Tiles are dropped least recently used first once their
+ * pixels take up more than a given number of bytes. Every method may be called from any number
+ * of request threads at once; tiles are decoded outside the lock, so a slow decode holds up
+ * nobody else.
+ */
+public class TileCache {
+    /** How many bytes of pixels to keep by default, which is a few hundred tiles. */
+    static final long DEFAULT_MAX_BYTES = 128L << 20;
+    /** The deepest level of tiles there is. */
+    static final int MAX_DEPTH = 7;
+    /**
+     * The system property that sets how deep MapServer warms up the cache at startup, e.g.
+     * -Dbearmaps.tiles.warmup=2. Zero or less turns the warm-up off.
+     */
+    static final String WARM_UP_PROPERTY = "bearmaps.tiles.warmup";
+    /** The warm-up depth when none is set: the 85 tiles of the four most zoomed out levels. */
+    static final int DEFAULT_WARM_UP_DEPTH = 3;
+
+    private final String root;
+    private final long maxBytes;
+    /** Tiles by file name, least recently used first. */
+    private final LinkedHashMap<String, BufferedImage> tiles =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache with the default bound.
+     * @param root The folder the tile images are in, ending in a separator.
+     */
+    public TileCache(String root) {
+        this(root, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates an empty cache.
+     * @param root The folder the tile images are in, ending in a separator.
+     * @param maxBytes How many bytes of pixels to keep at most.
+     */
+    TileCache(String root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the file name of a tile, such as d1_x0_y1.png.
+     * @param depth The depth of the tile, where the root tile has depth 0.
+     * @param x The column of the tile, counting from the west.
+     * @param y The row of the tile, counting from the north.
+     */
+    static String tileName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /**
+     * Returns a decoded tile, reading it from disk only if it is not cached.
+     * @param name The file name of the tile.
+     * @return The tile, or null if it cannot be read.
+     */
+    BufferedImage get(String name) {
+        synchronized (this) {
+            BufferedImage tile = tiles.get(name);
+            if (tile != null) {
+                hits += 1;
+                return tile;
+            }
+            misses += 1;
+        }
+        BufferedImage tile = read(name);
+        if (tile != null) {
+            put(name, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Reads and caches every tile down to a depth, skipping any that are missing, so that the
+     * first users of the map do not wait on the disk for the zoomed out views.
+     * @param depth The deepest level of tiles to read.
+     * @return How many tiles were read.
+     */
+    int warmUp(int depth) {
+        int count = 0;
+        for (int d = 0; d <= Math.min(depth, MAX_DEPTH); d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    String name = tileName(d, x, y);
+                    if (new File(root + name).isFile()) {
+                        BufferedImage tile = read(name);
+                        if (tile != null) {
+                            put(name, tile);
+                            count += 1;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the warm-up depth set by the bearmaps.tiles.warmup system property.
+     * @return The depth, DEFAULT_WARM_UP_DEPTH if the property is unset or not a number, or
+     * zero or less for no warm-up.
+     */
+    static int warmUpDepthProperty() {
+        String depth = System.getProperty(WARM_UP_PROPERTY);
+        if (depth == null) {
+            return DEFAULT_WARM_UP_DEPTH;
+        }
+        try {
+            return Integer.parseInt(depth.trim());
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return DEFAULT_WARM_UP_DEPTH;
+        }
+    }
+
+    private BufferedImage read(String name) {
+        try {
+            return ImageIO.read(new File(root + name));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private synchronized void put(String name, BufferedImage tile) {
+        long size = sizeOf(tile);
+        if (size > maxBytes) {
+            return;
+        }
+        BufferedImage old = tiles.put(name, tile);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += size;
+        Iterator<BufferedImage> it = tiles.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf(it.next());
+            it.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Returns how many bytes the pixels of an image take up. */
+    static long sizeOf(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /** Empties the cache, but keeps its counters. */
+    synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /** Returns how many tiles are cached. */
+    synchronized int size() {
+        return tiles.size();
+    }
+
+    /** Returns how many bytes of pixels are cached. */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /** Returns how many lookups found their tile cached. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns how many lookups had to read their tile. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns how many tiles were dropped to stay within the bound. */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the fraction of lookups that found their tile cached, or 0 if there were none. */
+    synchronized double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TileCache: %d tiles, %d bytes, %d hits, %d misses (%.1f%%), "
+                + "%d evictions", tiles.size(), bytes, hits, misses, 100 * hitRate(), evictions);
+    }
+}
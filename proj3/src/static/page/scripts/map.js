@@ -116,7 +116,8 @@ $(function() {
                 console.log(data);
                 if (data.query_success) {
                     $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
+                    map.src = 'data:image/' + (data.image_format || 'png') + ';base64,'
+                        + data.b64_encoded_image_data;
                     console.log('Updating map with image length: ' +
                                 data.b64_encoded_image_data.length);
                     ullon_bound = data.raster_ul_lon;
@@ -0,0 +1,107 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the connected components GraphDB finds, that it can keep just the largest one, and
+ * that Router gives up at once on endpoints in different components.
+ */
+public class TestComponents {
+    /** A road of four vertices, a road of two, and a node on no road at all. */
+    private static final String FRAGMENTS = "<osm>\n"
+            + "  <node id=\"1\" lat=\"38.0\" lon=\"0.0\"/>\n"
+            + "  <node id=\"2\" lat=\"38.0\" lon=\"0.1\"/>\n"
+            + "  <node id=\"3\" lat=\"38.0\" lon=\"0.2\"/>\n"
+            + "  <node id=\"4\" lat=\"38.0\" lon=\"0.3\"/>\n"
+            + "  <node id=\"5\" lat=\"38.5\" lon=\"0.0\"/>\n"
+            + "  <node id=\"6\" lat=\"38.5\" lon=\"0.1\"/>\n"
+            + "  <node id=\"7\" lat=\"39.0\" lon=\"0.0\"/>\n"
+            + "  <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Long Road\"/></way>\n"
+            + "  <way id=\"11\"><nd ref=\"5\"/><nd ref=\"6\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Parking Lot\"/></way>\n"
+            + "  <way id=\"12\"><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Long Road\"/></way>\n"
+            + "</osm>\n";
+
+    @After
+    public void tearDown() {
+        System.clearProperty(GraphDB.LARGEST_COMPONENT_PROPERTY);
+    }
+
+    @Test
+    public void testComponents() throws Exception {
+        GraphDB g = new GraphDB(write(FRAGMENTS));
+        assertEquals(6, g.vertexCount());
+        assertEquals(2, g.componentCount());
+        assertArrayEquals(new int[] {0, 0, 0, 0, 1, 1}, g.components);
+        assertArrayEquals(new int[] {4, 2}, g.componentSizes);
+        assertTrue(g.connected(g.indexOf(1), g.indexOf(4)));
+        assertFalse(g.connected(g.indexOf(4), g.indexOf(6)));
+    }
+
+    @Test
+    public void testRouterSkipsOtherComponents() throws Exception {
+        GraphDB g = new GraphDB(write(FRAGMENTS));
+        int s = g.indexOf(1);
+        int t = g.indexOf(6);
+        for (Router.Algorithm a : Router.Algorithm.values()) {
+            assertTrue(a.name(), Router.shortestPath(g, s, t, a).isEmpty());
+        }
+        assertEquals(4, Router.shortestPath(g, s, g.indexOf(4)).size());
+
+        double[][] matrix = Router.distanceMatrix(g, new int[] {s, t},
+                new int[] {g.indexOf(4), t});
+        assertEquals(g.distance(1, 2) + g.distance(2, 3) + g.distance(3, 4), matrix[0][0], 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[0][1], 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[1][0], 0.0);
+        assertEquals(0, matrix[1][1], 0.0);
+    }
+
+    @Test
+    public void testLargestComponentOnly() throws Exception {
+        String path = write(FRAGMENTS);
+        System.setProperty(GraphDB.LARGEST_COMPONENT_PROPERTY, "true");
+        GraphDB g = new GraphDB(path);
+        assertArrayEquals(new long[] {1, 2, 3, 4}, g.ids);
+        assertEquals(1, g.componentCount());
+        assertEquals(6, g.targets.length);
+        for (int e = 0; e < g.targets.length; e += 1) {
+            assertEquals("Long Road", g.wayName(e));
+        }
+        assertEquals(4, Router.shortestPath(g, g.indexOf(1), g.indexOf(4)).size());
+    }
+
+    @Test
+    public void testSnapshotRemembersSetting() throws Exception {
+        File source = new File(write(FRAGMENTS));
+        File snapshot = GraphSnapshot.snapshotFile(source.getPath());
+        snapshot.deleteOnExit();
+        GraphSnapshot.write(new GraphDB(source.getPath()), snapshot, source);
+        assertNotNull(GraphSnapshot.read(snapshot, source));
+
+        /* A snapshot of the whole graph is stale once only the largest component is wanted. */
+        System.setProperty(GraphDB.LARGEST_COMPONENT_PROPERTY, "true");
+        assertNull(GraphSnapshot.read(snapshot, source));
+        GraphDB pruned = GraphDB.load(source.getPath());
+        assertEquals(4, pruned.vertexCount());
+        assertEquals(4, GraphSnapshot.read(snapshot, source).vertexCount());
+    }
+
+    private static String write(String xml) throws Exception {
+        File f = File.createTempFile("fragments", ".osm.xml");
+        f.deleteOnExit();
+        Files.write(f.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return f.getPath();
+    }
+}
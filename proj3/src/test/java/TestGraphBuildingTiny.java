@@ -58,6 +58,25 @@ public class TestGraphBuildingTiny {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testPrimitiveAdjacency() {
+        int v = graphTiny.indexOf(63L);
+        HashSet<Long> expected = new HashSet<>();
+        HashSet<Long> actual = new HashSet<>();
+        expected.add(55L);
+        expected.add(41L);
+        expected.add(66L);
+
+        assertEquals(3, graphTiny.degree(v));
+        for (int i = 0; i < graphTiny.degree(v); i += 1) {
+            actual.add(graphTiny.idOf(graphTiny.neighbor(v, i)));
+        }
+        assertEquals(expected, actual);
+        assertEquals(0.6, graphTiny.lonAt(v), 0.00001);
+        assertEquals(38.3, graphTiny.latAt(v), 0.00001);
+        assertEquals(-1, graphTiny.indexOf(12345L));
+    }
+
     @Test
     public void testLonAndLat() {
         long v = 63L;
@@ -0,0 +1,153 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a graph survives a round trip through a binary snapshot, and that stale
+ * snapshots are ignored.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB graphTiny;
+    private File source;
+    private File snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        source = File.createTempFile("tiny", ".osm.xml");
+        source.deleteOnExit();
+        Files.copy(new File(OSM_DB_PATH_TINY).toPath(), source.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        snapshot = GraphSnapshot.snapshotFile(source.getPath());
+        snapshot.deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        GraphDB loaded = GraphSnapshot.read(snapshot, source);
+        assertNotNull(loaded);
+
+        assertEquals(graphTiny.vertexCount(), loaded.vertexCount());
+        for (long v : graphTiny.vertices()) {
+            assertEquals(graphTiny.lon(v), loaded.lon(v), 0.0);
+            assertEquals(graphTiny.lat(v), loaded.lat(v), 0.0);
+            HashSet<Long> expected = new HashSet<>();
+            HashSet<Long> actual = new HashSet<>();
+            graphTiny.adjacent(v).forEach(expected::add);
+            loaded.adjacent(v).forEach(actual::add);
+            assertEquals(expected, actual);
+        }
+        for (int e = 0; e < graphTiny.edgeEnd(graphTiny.vertexCount() - 1); e += 1) {
+            assertEquals(graphTiny.wayName(e), loaded.wayName(e));
+            assertEquals(graphTiny.edgeSpeed(e), loaded.edgeSpeed(e));
+            assertEquals(graphTiny.edgeTime(e), loaded.edgeTime(e), 0.0);
+        }
+        assertArrayEquals(graphTiny.locationNames, loaded.locationNames);
+        assertArrayEquals(graphTiny.locationIds, loaded.locationIds);
+    }
+
+    @Test
+    public void testStaleSnapshotIsIgnored() throws Exception {
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        assertNotNull(GraphSnapshot.read(snapshot, source));
+        assertEquals(true, source.setLastModified(source.lastModified() - 60000));
+        assertNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    @Test
+    public void testCorruptCountsAreIgnored() throws Exception {
+        /* The vertex count follows the magic, version, source length, source time and flag. */
+        int vertexCount = 4 + 4 + 8 + 8 + 4;
+        for (int count : new int[] {-1, Integer.MAX_VALUE, Integer.MAX_VALUE / 8}) {
+            GraphSnapshot.write(graphTiny, snapshot, source);
+            putInt(snapshot, vertexCount, count);
+            assertNull(GraphSnapshot.read(snapshot, source));
+        }
+        /* A way name length; the first name is the empty one, right after the edge speeds. */
+        int m = graphTiny.targets.length;
+        int n = graphTiny.vertexCount();
+        int firstName = vertexCount + 4 * 4 + n * (8 + 8 + 8 + 4) + 4 + m * (4 + 4 + 1);
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        putInt(snapshot, firstName, Integer.MAX_VALUE);
+        assertNull(GraphSnapshot.read(snapshot, source));
+        assertEquals(graphTiny.vertexCount(), GraphDB.load(source.getPath()).vertexCount());
+
+        /* The upward edge count of a hierarchy follows its header and the two graph counts. */
+        File file = GraphSnapshot.hierarchyFile(source.getPath());
+        file.deleteOnExit();
+        GraphSnapshot.writeHierarchy(graphTiny, new ContractionHierarchy(graphTiny), file, source);
+        putInt(file, 4 + 4 + 8 + 8 + 4 + 4, Integer.MAX_VALUE / 4);
+        assertNull(GraphSnapshot.readHierarchy(graphTiny, file, source));
+    }
+
+    @Test
+    public void testCorruptGraphIsIgnored() throws Exception {
+        int n = graphTiny.vertexCount();
+        int offsets = 4 + 4 + 8 + 8 + 4 + 4 * 4 + n * (8 + 8 + 8);
+        int targets = offsets + 4 * (n + 1);
+        int[][] corruptions = {
+            {offsets + 4, Integer.MAX_VALUE},
+            {offsets + 4 * n, graphTiny.targets.length + 1},
+            {targets, n},
+            {targets + 4, -1},
+        };
+        for (int[] corruption : corruptions) {
+            GraphSnapshot.write(graphTiny, snapshot, source);
+            putInt(snapshot, corruption[0], corruption[1]);
+            assertNull(GraphSnapshot.read(snapshot, source));
+        }
+
+        /* The first upward target of a hierarchy follows its header, ranks and offsets. */
+        File file = GraphSnapshot.hierarchyFile(source.getPath());
+        file.deleteOnExit();
+        GraphSnapshot.writeHierarchy(graphTiny, new ContractionHierarchy(graphTiny), file, source);
+        putInt(file, 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 * n + 4 * (n + 1), n);
+        assertNull(GraphSnapshot.readHierarchy(graphTiny, file, source));
+    }
+
+    @Test
+    public void testHierarchyRoundTrip() throws Exception {
+        File file = GraphSnapshot.hierarchyFile(source.getPath());
+        file.deleteOnExit();
+        ContractionHierarchy ch = new ContractionHierarchy(graphTiny);
+        GraphSnapshot.writeHierarchy(graphTiny, ch, file, source);
+        ContractionHierarchy loaded = GraphSnapshot.readHierarchy(graphTiny, file, source);
+        assertNotNull(loaded);
+        assertArrayEquals(ch.rank, loaded.rank);
+        assertArrayEquals(ch.upOffsets, loaded.upOffsets);
+        assertArrayEquals(ch.upTargets, loaded.upTargets);
+        assertArrayEquals(ch.upWeights, loaded.upWeights, 0.0);
+        assertArrayEquals(ch.upMiddles, loaded.upMiddles);
+
+        assertEquals(true, source.setLastModified(source.lastModified() - 60000));
+        assertNull(GraphSnapshot.readHierarchy(graphTiny, file, source));
+    }
+
+    @Test
+    public void testLoadFallsBackToXml() {
+        snapshot.delete();
+        GraphDB g = GraphDB.load(source.getPath());
+        assertEquals(graphTiny.vertexCount(), g.vertexCount());
+        assertEquals(true, snapshot.isFile());
+    }
+
+    /** Overwrites the little-endian int at an offset in a file. */
+    private static void putInt(File file, int offset, int value) throws Exception {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek(offset);
+            f.writeInt(Integer.reverseBytes(value));
+        }
+    }
+}
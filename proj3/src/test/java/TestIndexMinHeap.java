@@ -0,0 +1,69 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks IndexMinHeap against a brute-force minimum, with priorities being raised and lowered
+ * while items are in the heap, and SearchSpace's generations.
+ */
+public class TestIndexMinHeap {
+    private static final int CAPACITY = 500;
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        IndexMinHeap heap = new IndexMinHeap(CAPACITY);
+        double[] expected = new double[CAPACITY];
+        boolean[] in = new boolean[CAPACITY];
+        int size = 0;
+        for (int step = 0; step < 20000; step += 1) {
+            if (size > 0 && random.nextInt(3) == 0) {
+                int min = -1;
+                for (int i = 0; i < CAPACITY; i += 1) {
+                    if (in[i] && (min < 0 || expected[i] < expected[min])) {
+                        min = i;
+                    }
+                }
+                assertEquals(expected[min], heap.peekPriority(), 0.0);
+                int item = heap.poll();
+                assertEquals(expected[min], expected[item], 0.0);
+                in[item] = false;
+                size -= 1;
+            } else {
+                int item = random.nextInt(CAPACITY);
+                expected[item] = random.nextDouble();
+                if (!in[item]) {
+                    in[item] = true;
+                    size += 1;
+                }
+                heap.put(item, expected[item]);
+            }
+            assertEquals(size, heap.size());
+        }
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        for (int i = 0; i < CAPACITY; i += 1) {
+            assertFalse(heap.contains(i));
+        }
+    }
+
+    @Test
+    public void testSearchSpaceReset() {
+        SearchSpace space = new SearchSpace(3);
+        space.reset();
+        space.reach(1, 2.5, 0);
+        space.queue.put(1, 2.5);
+        assertTrue(space.reached(1));
+        assertEquals(2.5, space.distTo(1), 0.0);
+        assertEquals(0, space.edgeTo(1));
+
+        space.reset();
+        assertFalse(space.reached(1));
+        assertEquals(Double.POSITIVE_INFINITY, space.distTo(1), 0.0);
+        assertTrue(space.queue.isEmpty());
+    }
+}
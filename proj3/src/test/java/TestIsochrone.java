@@ -0,0 +1,138 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an Isochrone reaches exactly the vertices a full search finds within its budget,
+ * and that its hull is a polygon through some of them, in order of angle around the start.
+ */
+public class TestIsochrone {
+    private static final int SIDE = 25;
+    private static GraphDB graph;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        StringBuilder xml = new StringBuilder("<osm>\n");
+        for (int i = 0; i < SIDE; i += 1) {
+            for (int j = 0; j < SIDE; j += 1) {
+                xml.append("<node id=\"").append(id(i, j)).append("\" lat=\"")
+                        .append(37.87 - i * 0.001).append("\" lon=\"")
+                        .append(-122.26 + j * 0.001).append("\"/>\n");
+            }
+        }
+        for (int i = 0; i < SIDE; i += 1) {
+            for (int j = 0; j + 1 < SIDE; j += 1) {
+                /* Fast avenues every fifth row, slow streets elsewhere. */
+                String speed = i % 5 == 0 ? "45 mph" : "20 mph";
+                appendWay(xml, id(i, j), id(i, j + 1), speed);
+                appendWay(xml, id(j, i), id(j + 1, i), "20 mph");
+            }
+        }
+        xml.append("</osm>\n");
+        File file = File.createTempFile("isochrone", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        graph = new GraphDB(file.getPath());
+    }
+
+    private static long id(int i, int j) {
+        return 1 + i * SIDE + j;
+    }
+
+    private static void appendWay(StringBuilder xml, long v, long w, String speed) {
+        xml.append("<way id=\"").append(v * 10000 + w).append("\"><nd ref=\"").append(v)
+                .append("\"/><nd ref=\"").append(w)
+                .append("\"/><tag k=\"highway\" v=\"residential\"/><tag k=\"maxspeed\" v=\"")
+                .append(speed).append("\"/></way>\n");
+    }
+
+    @Test
+    public void testReachesExactlyTheBudget() {
+        double[][] budgets = {{0.5, 2.0}, {20, 90}};
+        for (Router.Metric m : Router.Metric.values()) {
+            for (double budget : budgets[m.ordinal()]) {
+                Isochrone isochrone = new Isochrone(graph, -122.25, 37.86, budget, m);
+                int s = graph.indexOf(isochrone.start);
+                int[] all = new int[graph.vertexCount()];
+                for (int v = 0; v < all.length; v += 1) {
+                    all[v] = v;
+                }
+                double[] costs = Router.distanceMatrix(graph, new int[] {s}, all, m,
+                        ForkJoinPool.commonPool())[0];
+
+                Set<Long> expected = new HashSet<>();
+                for (int v = 0; v < all.length; v += 1) {
+                    if (costs[v] <= budget) {
+                        expected.add(graph.idOf(v));
+                    }
+                }
+                Set<Long> actual = new HashSet<>();
+                double last = 0;
+                for (long v : isochrone.vertices) {
+                    actual.add(v);
+                    double cost = costs[graph.indexOf(v)];
+                    assertTrue("vertices should come cheapest first", cost >= last);
+                    last = cost;
+                }
+                assertEquals(m + " " + budget, expected, actual);
+                assertEquals(expected.size(), isochrone.vertices.length);
+                assertEquals(isochrone.start, isochrone.vertices[0]);
+                checkHull(isochrone);
+            }
+        }
+    }
+
+    @Test
+    public void testZeroBudget() {
+        Isochrone isochrone = new Isochrone(graph, -122.25, 37.86, 0, Router.Metric.DISTANCE);
+        assertEquals(1, isochrone.vertices.length);
+        assertEquals(1, isochrone.hullLons.length);
+    }
+
+    @Test
+    public void testSessions() {
+        RouteSessions sessions = new RouteSessions(1000);
+        Isochrone isochrone = new Isochrone(graph, -122.25, 37.86, 1, Router.Metric.DISTANCE);
+        RouteCache.Route route = new RouteCache.Route(Arrays.asList(1L, 2L), null);
+        sessions.setRoute("a", route, 0);
+        sessions.setIsochrone("a", isochrone, 0);
+        assertEquals(route, sessions.route("a", 10));
+        assertEquals(isochrone, sessions.isochrone("a", 10));
+        assertEquals(null, sessions.isochrone("b", 10));
+        assertTrue(isochrone.version
+                != new Isochrone(graph, -122.25, 37.86, 1, Router.Metric.DISTANCE).version);
+        sessions.clearRoute("a");
+        assertEquals(null, sessions.isochrone("a", 20));
+        sessions.setIsochrone("a", isochrone, 30);
+        assertEquals(null, sessions.isochrone("a", 1031));
+    }
+
+    /** Checks that the hull goes through reached vertices, counterclockwise around the start. */
+    private static void checkHull(Isochrone isochrone) {
+        int corners = isochrone.hullLons.length;
+        assertTrue(corners >= 3 && corners <= Isochrone.SECTORS);
+        Set<String> reached = new HashSet<>();
+        for (long v : isochrone.vertices) {
+            reached.add(graph.lon(v) + "," + graph.lat(v));
+        }
+        double lon0 = graph.lon(isochrone.start);
+        double lat0 = graph.lat(isochrone.start);
+        double last = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < corners; i += 1) {
+            assertTrue(reached.contains(isochrone.hullLons[i] + "," + isochrone.hullLats[i]));
+            double angle = Math.atan2(isochrone.hullLats[i] - lat0, isochrone.hullLons[i] - lon0);
+            assertTrue("corners should go around the start in order", angle >= last);
+            last = angle;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks LocationIndex's name and word lookups against brute-force scans over random names.
+ */
+public class TestLocationIndex {
+    private static final String[] WORDS = {"Peet's", "Coffee", "&", "Tea", "Cafe", "Strada",
+        "Bank", "of", "America", "Top", "Dog", "Berkeley", "Bowl"};
+    private static final int NUM_LOCATIONS = 2000;
+
+    @Test
+    public void testAgainstScan() {
+        Random random = new Random(19);
+        long[] ids = new long[NUM_LOCATIONS];
+        double[] lons = new double[NUM_LOCATIONS];
+        double[] lats = new double[NUM_LOCATIONS];
+        String[] names = new String[NUM_LOCATIONS];
+        for (int i = 0; i < NUM_LOCATIONS; i += 1) {
+            ids[i] = 1000 + random.nextInt(1000000);
+            lons[i] = -122.3 + random.nextDouble() / 10;
+            lats[i] = 37.8 + random.nextDouble() / 10;
+            StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int w = random.nextInt(4); w > 0; w -= 1) {
+                name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            names[i] = random.nextBoolean() ? name.toString() : name.toString().toUpperCase();
+        }
+        LocationIndex index = new LocationIndex(ids, lons, lats, names);
+
+        String[] queries = {"peets coffee", "PEET'S COFFEE", "coffee peets", "tea", "bank of",
+            "america bank", "top dog top", "strada", "nothing", "", "&"};
+        for (String query : queries) {
+            String key = GraphDB.cleanString(query);
+            Set<String> tokens = new HashSet<>(Arrays.asList(key.trim().split(" +")));
+            Set<String> exact = new HashSet<>();
+            Set<String> byWords = new HashSet<>();
+            for (int i = 0; i < NUM_LOCATIONS; i += 1) {
+                String cleaned = GraphDB.cleanString(names[i]);
+                String location = ids[i] + " " + lats[i] + " " + lons[i] + " " + names[i];
+                if (cleaned.equals(key)) {
+                    exact.add(location);
+                }
+                if (!key.trim().isEmpty()
+                        && new HashSet<>(Arrays.asList(cleaned.trim().split(" +")))
+                        .containsAll(tokens)) {
+                    byWords.add(location);
+                }
+            }
+            assertEquals(query, exact, locations(index, index.lookup(query)));
+            assertEquals(query, byWords, locations(index, index.lookupTokens(query)));
+        }
+    }
+
+    private static Set<String> locations(LocationIndex index, int[] positions) {
+        List<String> result = new ArrayList<>();
+        for (int p : positions) {
+            result.add(index.id(p) + " " + index.lat(p) + " " + index.lon(p) + " "
+                    + index.name(p));
+        }
+        Set<String> distinct = new HashSet<>(result);
+        assertEquals("duplicate results", result.size(), distinct.size());
+        return distinct;
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks LocationTrie's completions against a brute-force scan over random names with random
+ * popularity, punctuation and capitalization.
+ */
+public class TestLocationTrie {
+    private static final String[] WORDS = {"Peet's", "Coffee", "Cafe", "Cheese", "Board",
+        "Berkeley", "Bowl", "Bank", "of", "America", "Top", "Dog", "Tea", "Tealuxe"};
+
+    @Test
+    public void testAgainstScan() {
+        Random random = new Random(18);
+        List<String> locations = new ArrayList<>();
+        for (int i = 0; i < 3000; i += 1) {
+            StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int w = random.nextInt(3); w > 0; w -= 1) {
+                name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            locations.add(name.toString());
+        }
+        locations.add("!!!");
+        String[] names = locations.toArray(new String[0]);
+        LocationTrie trie = new LocationTrie(names, 5);
+
+        String[] prefixes = {"", "p", "PEETS", "peets c", "b", "ba", "bo", "t", "tea", "tealux",
+            "x", "of america", "cheese board", "Top Dog Top Dog Top Dog", "!"};
+        for (String prefix : prefixes) {
+            assertEquals(prefix, scan(names, prefix, 5), trie.complete(prefix));
+        }
+    }
+
+    @Test
+    public void testFuzzyAgainstScan() {
+        Random random = new Random(20);
+        List<String> locations = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 1) {
+            StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int w = random.nextInt(3); w > 0; w -= 1) {
+                name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            locations.add(name.toString());
+        }
+        String[] names = locations.toArray(new String[0]);
+        LocationTrie trie = new LocationTrie(names, 5);
+
+        String[] prefixes = {"", "p", "pets", "peets cofee", "bakn", "chese bord", "tealuxe",
+            "berkely bowl", "xyz", "top dgo", "amercia"};
+        for (String prefix : prefixes) {
+            for (int d = 0; d <= 2; d += 1) {
+                assertEquals(prefix + " " + d, fuzzyScan(names, prefix, d, 5),
+                        trie.completeFuzzy(prefix, d));
+            }
+        }
+        assertEquals(trie.complete("peets"), trie.completeFuzzy("peets", 0));
+        assertEquals("Peet's", trie.completeFuzzy("Pets", 1).get(0).substring(0, 6));
+        assertEquals(trie.complete("tealuxe"), trie.search("tealuxe"));
+        assertEquals(trie.completeFuzzy("berkely bowl", 2), trie.search("berkely bowl"));
+        assertEquals(0, trie.search("xyz").size());
+    }
+
+    @Test
+    public void testEmpty() {
+        LocationTrie trie = new LocationTrie(new String[0]);
+        assertEquals(0, trie.complete("a").size());
+        assertEquals(0, trie.complete("").size());
+        assertEquals(0, trie.completeFuzzy("abcde", 2).size());
+    }
+
+    /** Returns the k names prefix-matching a query with the most locations, ties by name. */
+    private static List<String> scan(String[] locations, String prefix, int k) {
+        String key = GraphDB.cleanString(prefix);
+        Map<String, Integer> counts = new HashMap<>();
+        for (String name : locations) {
+            if (GraphDB.cleanString(name).startsWith(key)) {
+                counts.merge(name, 1, Integer::sum);
+            }
+        }
+        String[] matches = counts.keySet().toArray(new String[0]);
+        Arrays.sort(matches, (a, b) -> counts.get(a).equals(counts.get(b))
+                ? a.compareTo(b) : counts.get(b) - counts.get(a));
+        return Arrays.asList(matches).subList(0, Math.min(k, matches.length));
+    }
+
+    /**
+     * Returns the k names that start within an edit distance of a query, the closest first,
+     * then the ones with the most locations, ties by name.
+     */
+    private static List<String> fuzzyScan(String[] locations, String prefix, int d, int k) {
+        String key = GraphDB.cleanString(prefix);
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Integer> distances = new HashMap<>();
+        for (String name : locations) {
+            int distance = prefixDistance(key, GraphDB.cleanString(name));
+            if (distance <= d) {
+                counts.merge(name, 1, Integer::sum);
+                distances.put(name, distance);
+            }
+        }
+        String[] matches = counts.keySet().toArray(new String[0]);
+        Arrays.sort(matches, (a, b) -> !distances.get(a).equals(distances.get(b))
+                ? distances.get(a) - distances.get(b)
+                : counts.get(a).equals(counts.get(b))
+                ? a.compareTo(b) : counts.get(b) - counts.get(a));
+        return Arrays.asList(matches).subList(0, Math.min(k, matches.length));
+    }
+
+    /** Returns the least edit distance between a key and any prefix of a name. */
+    private static int prefixDistance(String key, String name) {
+        int[] row = new int[key.length() + 1];
+        for (int j = 0; j < row.length; j += 1) {
+            row[j] = j;
+        }
+        int best = row[key.length()];
+        for (int i = 1; i <= name.length(); i += 1) {
+            int diagonal = row[0];
+            row[0] = i;
+            for (int j = 1; j < row.length; j += 1) {
+                int above = row[j];
+                int cost = key.charAt(j - 1) == name.charAt(i - 1) ? 0 : 1;
+                row[j] = Math.min(Math.min(row[j - 1], above) + 1, diagonal + cost);
+                diagonal = above;
+            }
+            best = Math.min(best, row[key.length()]);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that building one graph from several overlapping extracts gives the same graph as
+ * building it from a single file, no matter how many threads parse them.
+ */
+public class TestMultiRegion {
+    private static final String WEST = "<osm>\n"
+            + "  <node id=\"1\" lat=\"38.0\" lon=\"0.0\"/>\n"
+            + "  <node id=\"2\" lat=\"38.0\" lon=\"0.1\">"
+            + "<tag k=\"name\" v=\"Border Cafe\"/></node>\n"
+            + "  <node id=\"3\" lat=\"38.1\" lon=\"0.0\"/>\n"
+            + "  <way id=\"10\"><nd ref=\"3\"/><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"West Street\"/></way>\n"
+            + "  <way id=\"11\"><nd ref=\"2\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"primary\"/><tag k=\"name\" v=\"Border Road\"/></way>\n"
+            + "</osm>\n";
+    private static final String EAST = "<osm>\n"
+            + "  <node id=\"2\" lat=\"38.0\" lon=\"0.1\">"
+            + "<tag k=\"name\" v=\"Border Cafe\"/></node>\n"
+            + "  <node id=\"4\" lat=\"38.0\" lon=\"0.2\"/>\n"
+            + "  <node id=\"5\" lat=\"38.1\" lon=\"0.2\"/>\n"
+            + "  <way id=\"11\"><nd ref=\"2\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"primary\"/><tag k=\"name\" v=\"Border Road\"/></way>\n"
+            + "  <way id=\"12\"><nd ref=\"4\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"East Street\"/></way>\n"
+            + "</osm>\n";
+    private static final String WHOLE = "<osm>\n"
+            + "  <node id=\"1\" lat=\"38.0\" lon=\"0.0\"/>\n"
+            + "  <node id=\"2\" lat=\"38.0\" lon=\"0.1\">"
+            + "<tag k=\"name\" v=\"Border Cafe\"/></node>\n"
+            + "  <node id=\"3\" lat=\"38.1\" lon=\"0.0\"/>\n"
+            + "  <node id=\"4\" lat=\"38.0\" lon=\"0.2\"/>\n"
+            + "  <node id=\"5\" lat=\"38.1\" lon=\"0.2\"/>\n"
+            + "  <way id=\"10\"><nd ref=\"3\"/><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"West Street\"/></way>\n"
+            + "  <way id=\"11\"><nd ref=\"2\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"primary\"/><tag k=\"name\" v=\"Border Road\"/></way>\n"
+            + "  <way id=\"12\"><nd ref=\"4\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"East Street\"/></way>\n"
+            + "</osm>\n";
+
+    @Test
+    public void testMergedGraphMatchesSingleFile() throws Exception {
+        List<String> regions = Arrays.asList(write(WEST), write(EAST));
+        GraphDB whole = new GraphDB(write(WHOLE));
+        GraphDB oneThread = new GraphDB(regions, new ForkJoinPool(1));
+        GraphDB fourThreads = new GraphDB(regions, new ForkJoinPool(4));
+
+        assertEquals(5, whole.vertexCount());
+        assertSameGraph(whole, oneThread);
+        assertSameGraph(whole, fourThreads);
+        /* The boundary road is in both extracts but must only be stored once. */
+        assertEquals(2, oneThread.degree(oneThread.indexOf(2L)));
+        assertEquals(1, oneThread.locationIds.length);
+    }
+
+    private static void assertSameGraph(GraphDB expected, GraphDB actual) {
+        assertArrayEquals(expected.ids, actual.ids);
+        assertArrayEquals(expected.lons, actual.lons, 0.0);
+        assertArrayEquals(expected.lats, actual.lats, 0.0);
+        assertArrayEquals(expected.offsets, actual.offsets);
+        assertArrayEquals(expected.targets, actual.targets);
+        for (int e = 0; e < expected.targets.length; e += 1) {
+            assertEquals(expected.wayName(e), actual.wayName(e));
+        }
+        assertArrayEquals(expected.locationIds, actual.locationIds);
+    }
+
+    private static String write(String xml) throws Exception {
+        File f = File.createTempFile("region", ".osm.xml");
+        f.deleteOnExit();
+        Files.write(f.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return f.getPath();
+    }
+}
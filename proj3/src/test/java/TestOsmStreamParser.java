@@ -0,0 +1,93 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that OsmStreamParser reads OSM XML exactly like the SAX parser does.
+ */
+public class TestOsmStreamParser {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+
+    @Test
+    public void testMatchesSaxOnTinyGraph() throws Exception {
+        OsmExtract sax = new OsmExtract();
+        sax.parseWithSax(OSM_DB_PATH_TINY);
+        OsmExtract stream = new OsmExtract();
+        stream.parse(OSM_DB_PATH_TINY);
+        assertSameExtract(sax, stream);
+    }
+
+    @Test
+    public void testXmlFeatures() throws Exception {
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<!-- a comment with a > in it -->\n"
+                + "<osm version=\"0.6\">\n"
+                + "  <node id='7' lat='37.8719000' lon=\"-122.2585\" user=\"a > b\"/>\n"
+                + "  <node lon=\"-122.25\" lat=\"37.87\" id=\"8\">\n"
+                + "    <tag k=\"amenity\" v=\"cafe\"/>\n"
+                + "    <tag k=\"name\" v=\"Caf&#233; &amp; &quot;Bar&quot; &#x2615;\"/>\n"
+                + "  </node>\n"
+                + "  <node id=\"9\" lat=\"3.7e1\" lon=\"-122.123456789012345678\"/>\n"
+                + "  <way id=\"1\">\n"
+                + "    <nd ref=\"7\"/><nd ref=\"8\" /><nd ref=\"9\"/>\n"
+                + "    <tag v=\"Caf\u00e9   Street\" k=\"name\"/>\n"
+                + "    <tag k=\"highway\" v=\"residential\"/>\n"
+                + "  </way>\n"
+                + "  <way id=\"2\"><nd ref=\"7\"/><nd ref=\"9\"/>"
+                + "<tag k=\"highway\" v=\"footway\"/></way>\n"
+                + "</osm>\n";
+        OsmExtract stream = new OsmExtract();
+        new OsmStreamParser(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                new GraphBuildingHandler(stream)).parse();
+
+        assertEquals(3, stream.nodeCount);
+        assertEquals(37.8719, stream.nodeLats[0], 0.0);
+        assertEquals(-122.2585, stream.nodeLons[0], 0.0);
+        assertEquals(37.0, stream.nodeLats[2], 0.0);
+        assertEquals(Double.parseDouble("-122.123456789012345678"), stream.nodeLons[2], 0.0);
+        assertEquals(2, stream.edgeCount);
+        assertEquals("Caf\u00e9   Street", stream.wayNames.get(stream.edgeNames[0]));
+        assertEquals(1, stream.locationCount);
+        assertEquals("Caf\u00e9 & \"Bar\" \u2615", stream.locationNames[0]);
+    }
+
+    @Test
+    public void testMaxSpeeds() throws Exception {
+        assertEquals(25, GraphBuildingHandler.parseMaxSpeed("25 mph"));
+        assertEquals(25, GraphBuildingHandler.parseMaxSpeed(" 25mph"));
+        assertEquals(31, GraphBuildingHandler.parseMaxSpeed("50"));
+        assertEquals(31, GraphBuildingHandler.parseMaxSpeed("50 km/h"));
+        assertEquals(15, GraphBuildingHandler.parseMaxSpeed("15 mph;25 mph"));
+        assertEquals(0, GraphBuildingHandler.parseMaxSpeed("none"));
+        assertEquals(0, GraphBuildingHandler.parseMaxSpeed("signals"));
+        assertEquals(255, GraphBuildingHandler.parseMaxSpeed("1000 mph"));
+
+        OsmExtract stream = new OsmExtract();
+        stream.parse(OSM_DB_PATH_TINY);
+        /* Alpha Street has no maxspeed and is residential; Beta Avenue is signed 35 mph. */
+        for (int i = 0; i < stream.edgeCount; i += 1) {
+            String way = stream.wayNames.get(stream.edgeNames[i]);
+            int expected = way.equals("Beta Avenue") ? 35 : 25;
+            assertEquals(way, expected, stream.edgeSpeeds[i] & 0xff);
+        }
+    }
+
+    static void assertSameExtract(OsmExtract expected, OsmExtract actual) {
+        assertEquals(expected.nodeCount, actual.nodeCount);
+        assertEquals(expected.edgeCount, actual.edgeCount);
+        assertEquals(expected.locationCount, actual.locationCount);
+        assertArrayEquals(expected.nodeIds, actual.nodeIds);
+        assertArrayEquals(expected.nodeLons, actual.nodeLons, 0.0);
+        assertArrayEquals(expected.nodeLats, actual.nodeLats, 0.0);
+        assertArrayEquals(expected.edges, actual.edges);
+        assertArrayEquals(expected.edgeNames, actual.edgeNames);
+        assertArrayEquals(expected.edgeSpeeds, actual.edgeSpeeds);
+        assertEquals(expected.wayNames, actual.wayNames);
+        assertArrayEquals(expected.locationIds, actual.locationIds);
+        assertArrayEquals(expected.locationNames, actual.locationNames);
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks RasterCache's keys, hits and memory budget, and that every new route gets a new
+ * version so that images of an old route are not served for it.
+ */
+public class TestRasterCache {
+    private static final String[][] GRID = {
+        {"d2_x1_y0.png", "d2_x2_y0.png"},
+        {"d2_x1_y1.png", "d2_x2_y1.png"}
+    };
+
+    private static byte[] bytes(String image) {
+        return image.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testKeys() {
+        String[][] shifted = {{"d2_x2_y0.png", "d2_x3_y0.png"}, {"d2_x2_y1.png", "d2_x3_y1.png"}};
+        assertEquals(RasterCache.key(GRID, 0), RasterCache.key(GRID, 0));
+        assertNotEquals(RasterCache.key(GRID, 0), RasterCache.key(shifted, 0));
+        assertNotEquals(RasterCache.key(GRID, 0), RasterCache.key(GRID, 1));
+        assertNotEquals(RasterCache.key(GRID, 1), RasterCache.key(GRID, 1, 1));
+        assertEquals(RasterCache.key(GRID, 1), RasterCache.key(GRID, 1, 0));
+    }
+
+    @Test
+    public void testRouteVersions() {
+        RouteCache.Route a = new RouteCache.Route(Arrays.asList(1L, 2L), null);
+        RouteCache.Route b = new RouteCache.Route(Arrays.asList(1L, 2L), null);
+        RouteCache.Route none = new RouteCache.Route(Collections.<Long>emptyList(), null);
+        assertNotEquals(0, a.version);
+        assertNotEquals(a.version, b.version);
+        assertEquals(0, none.version);
+    }
+
+    @Test
+    public void testBudget() {
+        RasterCache.Raster raster = new RasterCache.Raster(bytes("abcd"), 512, 512);
+        RasterCache cache = new RasterCache(2 * raster.bytes());
+        assertNull(cache.get("a"));
+        cache.put("a", raster);
+        cache.put("b", new RasterCache.Raster(bytes("efgh"), 512, 512));
+        assertSame(raster, cache.get("a"));
+        cache.put("c", new RasterCache.Raster(bytes("ijkl"), 512, 512));
+        /* b was the least recently used. */
+        assertNull(cache.get("b"));
+        assertSame(raster, cache.get("a"));
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+
+        cache.put("d", new RasterCache.Raster(bytes("far too long for the budget"), 1, 1));
+        assertNull(cache.get("d"));
+        assertEquals(2 * raster.bytes(), cache.bytes());
+    }
+}
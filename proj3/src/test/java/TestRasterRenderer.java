@@ -0,0 +1,127 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that RasterRenderer puts every tile of a grid in its place when rows are drawn
+ * concurrently, that its images decode back in both formats, and that its streamed JSON is the
+ * JSON Gson would have made.
+ */
+public class TestRasterRenderer {
+    private static final int SIDE = 4;
+    private static TileCache tiles;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        dir.deleteOnExit();
+        for (int y = 0; y < SIDE; y += 1) {
+            for (int x = 0; x < SIDE; x += 1) {
+                BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                        BufferedImage.TYPE_INT_RGB);
+                for (int i = 0; i < MapServer.TILE_SIZE; i += 1) {
+                    for (int j = 0; j < MapServer.TILE_SIZE; j += 1) {
+                        img.setRGB(i, j, color(x, y));
+                    }
+                }
+                File file = new File(dir, TileCache.tileName(2, x, y));
+                file.deleteOnExit();
+                ImageIO.write(img, "png", file);
+            }
+        }
+        tiles = new TileCache(dir.getPath() + File.separator);
+    }
+
+    private static int color(int x, int y) {
+        return (x * 60) << 16 | (y * 60) << 8 | 128;
+    }
+
+    private static String[][] grid() {
+        String[][] grid = new String[SIDE][SIDE];
+        for (int y = 0; y < SIDE; y += 1) {
+            for (int x = 0; x < SIDE; x += 1) {
+                grid[y][x] = TileCache.tileName(2, x, y);
+            }
+        }
+        return grid;
+    }
+
+    @Test
+    public void testCompositeInParallel() {
+        ForkJoinPool pool = new ForkJoinPool(SIDE);
+        RasterRenderer renderer = new RasterRenderer(tiles, RasterRenderer.Format.PNG, -1, pool);
+        BufferedImage img = renderer.composite(grid());
+        pool.shutdown();
+        assertEquals(SIDE * MapServer.TILE_SIZE, img.getWidth());
+        for (int y = 0; y < SIDE; y += 1) {
+            for (int x = 0; x < SIDE; x += 1) {
+                int px = x * MapServer.TILE_SIZE;
+                int py = y * MapServer.TILE_SIZE;
+                assertEquals(color(x, y), img.getRGB(px, py) & 0xffffff);
+                assertEquals(color(x, y), img.getRGB(px + MapServer.TILE_SIZE - 1,
+                        py + MapServer.TILE_SIZE - 1) & 0xffffff);
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeFormats() throws Exception {
+        for (RasterRenderer.Format format : RasterRenderer.Format.values()) {
+            RasterRenderer renderer = new RasterRenderer(tiles, format, 1,
+                    ForkJoinPool.commonPool());
+            BufferedImage img = renderer.composite(grid());
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            renderer.encode(img, os);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+            assertEquals(img.getWidth(), decoded.getWidth());
+            assertEquals(img.getHeight(), decoded.getHeight());
+            int expected = img.getRGB(300, 300);
+            int actual = decoded.getRGB(300, 300);
+            for (int shift = 0; shift < 24; shift += 8) {
+                assertEquals(format + "", expected >> shift & 0xff, actual >> shift & 0xff, 4);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteJson() throws Exception {
+        byte[] image = new byte[1000];
+        for (int i = 0; i < image.length; i += 1) {
+            image[i] = (byte) (i * 31);
+        }
+        Map<String, Object> results = new HashMap<>();
+        results.put("render_grid", grid());
+        results.put("raster_ul_lon", MapServer.ROOT_ULLON);
+        results.put("query_success", true);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RasterRenderer.writeJson(results, image, os);
+        results.put("b64_encoded_image_data", Base64.getEncoder().encodeToString(image));
+
+        Gson gson = new Gson();
+        JsonObject expected = gson.fromJson(gson.toJson(results), JsonObject.class);
+        JsonObject actual = gson.fromJson(new String(os.toByteArray(), StandardCharsets.UTF_8),
+                JsonObject.class);
+        assertEquals(expected, actual);
+
+        os.reset();
+        RasterRenderer.writeJson(new HashMap<>(), new byte[] {1, 2}, os);
+        assertEquals("{\"b64_encoded_image_data\":\"AQI=\"}",
+                new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
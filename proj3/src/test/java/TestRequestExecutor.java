@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that RequestExecutor turns work away once a pool is full, without holding up the other
+ * pool, and hands back what its tasks return or throw.
+ */
+public class TestRequestExecutor {
+
+    @Test
+    public void testBackpressure() throws Exception {
+        RequestExecutor executor = new RequestExecutor(1, 1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread[] clients = new Thread[2];
+        for (int i = 0; i < clients.length; i += 1) {
+            clients[i] = new Thread(() -> {
+                try {
+                    executor.run(RequestExecutor.Kind.HEAVY, () -> {
+                        started.countDown();
+                        release.await();
+                        return null;
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            clients[i].start();
+            /* Let the first take the thread before the second takes the queue. */
+            started.await();
+        }
+        while (executor.pending(RequestExecutor.Kind.HEAVY) < 2) {
+            Thread.sleep(1);
+        }
+
+        try {
+            executor.run(RequestExecutor.Kind.HEAVY, () -> 1);
+            fail("A full pool should turn work away.");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.rejected());
+        }
+        assertEquals((Integer) 2, executor.run(RequestExecutor.Kind.LIGHT, () -> 2));
+
+        release.countDown();
+        for (Thread client : clients) {
+            client.join();
+        }
+        assertEquals((Integer) 3, executor.run(RequestExecutor.Kind.HEAVY, () -> 3));
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRethrowsTaskException() throws Exception {
+        RequestExecutor executor = new RequestExecutor(1, 1, 1, 1);
+        try {
+            executor.run(RequestExecutor.Kind.LIGHT, () -> {
+                throw new IllegalStateException("halted");
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
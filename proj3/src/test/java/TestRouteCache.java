@@ -0,0 +1,105 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that RouteCache hands back the routes Router finds, counts hits and misses, stays
+ * within its bounds, and forgets everything when asked about another graph.
+ */
+public class TestRouteCache {
+    private static final int LENGTH = 10;
+    private static GraphDB graph;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        graph = line();
+    }
+
+    /** Returns a graph that is one straight street of LENGTH vertices, with ids 1 to LENGTH. */
+    private static GraphDB line() throws Exception {
+        StringBuilder xml = new StringBuilder("<osm>\n");
+        for (int i = 1; i <= LENGTH; i += 1) {
+            xml.append("<node id=\"").append(i).append("\" lat=\"37.87\" lon=\"")
+                    .append(-122.26 + i * 0.001).append("\"/>\n");
+        }
+        xml.append("<way id=\"1\">");
+        for (int i = 1; i <= LENGTH; i += 1) {
+            xml.append("<nd ref=\"").append(i).append("\"/>");
+        }
+        xml.append("<tag k=\"highway\" v=\"residential\"/></way>\n</osm>\n");
+        File file = File.createTempFile("line", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        return new GraphDB(file.getPath());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        RouteCache cache = new RouteCache();
+        int s = graph.indexOf(2);
+        int t = graph.indexOf(7);
+        RouteCache.Route first = cache.route(graph, s, t);
+        assertEquals(Router.shortestPath(graph, s, t), first.path);
+        assertEquals(6, first.path.size());
+        assertSame(first, cache.route(graph, s, t));
+        /* Points near the same vertices snap to them and share the route. */
+        assertSame(first, cache.route(graph, -122.258 + 1e-5, 37.87, -122.253 - 1e-5, 37.87));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+
+        /* The other direction is another route. */
+        assertEquals(6, cache.route(graph, t, s).path.size());
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEviction() {
+        RouteCache cache = new RouteCache(2, 8);
+        int a = graph.indexOf(1);
+        int b = graph.indexOf(3);
+        int c = graph.indexOf(5);
+        RouteCache.Route ab = cache.route(graph, a, b);
+        cache.route(graph, b, c);
+        /* Touch a to b, so that b to c is the least recently used. */
+        cache.route(graph, a, b);
+        cache.route(graph, a, a);
+        assertEquals(1, cache.evictions());
+        assertSame(ab, cache.route(graph, a, b));
+
+        /* Two routes of LENGTH vertices do not fit in 8 vertices at all. */
+        cache.route(graph, graph.indexOf(1), graph.indexOf(LENGTH));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEmptyGraph() throws Exception {
+        File file = File.createTempFile("empty", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "<osm>\n</osm>\n".getBytes(StandardCharsets.UTF_8));
+        GraphDB empty = new GraphDB(file.getPath());
+        assertEquals(0, empty.closest(-122.26, 37.87));
+        assertEquals(0, empty.closestByScan(-122.26, 37.87));
+        assertTrue(Router.shortestPath(empty, -122.26, 37.87, -122.25, 37.87).isEmpty());
+        assertTrue(new RouteCache().route(empty, -122.26, 37.87, -122.25, 37.87).path.isEmpty());
+    }
+
+    @Test
+    public void testReloadEmptiesCache() throws Exception {
+        RouteCache cache = new RouteCache();
+        int s = graph.indexOf(2);
+        int t = graph.indexOf(4);
+        RouteCache.Route route = cache.route(graph, s, t);
+        GraphDB reloaded = line();
+        assertEquals(route.path, cache.route(reloaded, s, t).path);
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that RouteSessions keeps each user's route apart, forgets idle users, and does not
+ * lose routes set from many threads at once.
+ */
+public class TestRouteSessions {
+    private static final long TTL = 1000;
+
+    private static RouteCache.Route route(Long... path) {
+        return new RouteCache.Route(Arrays.asList(path),
+                Collections.<Router.NavigationDirection>emptyList());
+    }
+
+    @Test
+    public void testUsersAreSeparate() {
+        RouteSessions sessions = new RouteSessions(TTL);
+        RouteCache.Route a = route(1L, 2L);
+        RouteCache.Route b = route(3L, 4L, 5L);
+        sessions.setRoute("a", a, 0);
+        sessions.setRoute("b", b, 0);
+        assertSame(a, sessions.route("a", 10));
+        assertSame(b, sessions.route("b", 10));
+        assertTrue(sessions.route("c", 10).path.isEmpty());
+
+        sessions.clearRoute("a");
+        assertTrue(sessions.route("a", 20).path.isEmpty());
+        assertSame(b, sessions.route("b", 20));
+    }
+
+    @Test
+    public void testIdleUsersExpire() {
+        RouteSessions sessions = new RouteSessions(TTL);
+        RouteCache.Route a = route(1L, 2L);
+        sessions.setRoute("a", a, 0);
+        sessions.setRoute("b", route(3L), 0);
+        /* Reading a route counts as being heard from. */
+        assertSame(a, sessions.route("a", TTL));
+        assertTrue(sessions.route("b", TTL + 1).path.isEmpty());
+        assertSame(a, sessions.route("a", 2 * TTL));
+
+        /* Setting a route late enough sweeps out everyone who has expired. */
+        sessions.setRoute("c", route(6L), 3 * TTL + 1);
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    public void testConcurrentUsers() throws InterruptedException {
+        RouteSessions sessions = new RouteSessions(TTL);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i += 1) {
+            final long user = i;
+            threads.add(new Thread(() -> {
+                for (int step = 0; step < 1000; step += 1) {
+                    sessions.setRoute("user" + user, route(user, (long) step), step);
+                    assertEquals((Long) user, sessions.route("user" + user, step).path.get(0));
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(8, sessions.size());
+        assertEquals(Arrays.asList(3L, 999L), sessions.route("user3", 999).path);
+    }
+}
@@ -30,6 +30,21 @@ public class TestRouter {
 
     @Test
     public void testShortestPath() throws Exception {
+        assertShortestPaths();
+    }
+
+    @Test
+    public void testShortestPathBidirectional() throws Exception {
+        Router.Algorithm previous = Router.algorithm();
+        Router.setAlgorithm(Router.Algorithm.BIDIRECTIONAL);
+        try {
+            assertShortestPaths();
+        } finally {
+            Router.setAlgorithm(previous);
+        }
+    }
+
+    private void assertShortestPaths() throws Exception {
         List<Map<String, Double>> testParams = paramsFromFile();
         List<List<Long>> expectedResults = resultsFromFile();
 
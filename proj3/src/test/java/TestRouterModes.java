@@ -0,0 +1,277 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every Router.Algorithm finds paths exactly as short as plain A*, on a random
+ * street grid with a few missing blocks, mixed speed limits and a separate island that cannot
+ * be reached, and exactly as fast as Dijkstra's algorithm by travel time. Also checks distance
+ * matrices against searching pair by pair.
+ */
+public class TestRouterModes {
+    private static final int SIDE = 30;
+    private static final int NUM_QUERIES = 300;
+    private static final long ISLAND = 1000000;
+    private static final String[] MAX_SPEEDS = {null, "35 mph", "50", "65 mph", "none"};
+    private static GraphDB graph;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Random random = new Random(2018);
+        StringBuilder xml = new StringBuilder("<osm>\n");
+        for (int i = 0; i < SIDE; i += 1) {
+            for (int j = 0; j < SIDE; j += 1) {
+                double lat = 37.87 - i * 0.001 + (random.nextDouble() - 0.5) * 0.0004;
+                double lon = -122.26 + j * 0.001 + (random.nextDouble() - 0.5) * 0.0004;
+                xml.append("<node id=\"").append(id(i, j)).append("\" lat=\"").append(lat)
+                        .append("\" lon=\"").append(lon).append("\"/>\n");
+            }
+        }
+        for (int i = 0; i < SIDE; i += 1) {
+            for (int j = 0; j + 1 < SIDE; j += 1) {
+                if (random.nextInt(8) != 0) {
+                    appendWay(xml, id(i, j), id(i, j + 1));
+                }
+                if (random.nextInt(8) != 0) {
+                    appendWay(xml, id(j, i), id(j + 1, i));
+                }
+            }
+        }
+        xml.append("<node id=\"").append(ISLAND).append("\" lat=\"37.9\" lon=\"-122.3\"/>\n");
+        xml.append("<node id=\"").append(ISLAND + 1).append("\" lat=\"37.9\" lon=\"-122.299\"/>\n");
+        appendWay(xml, ISLAND, ISLAND + 1);
+        xml.append("</osm>\n");
+
+        File file = File.createTempFile("grid", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        graph = new GraphDB(file.getPath());
+    }
+
+    private static long id(int i, int j) {
+        return 1 + i * SIDE + j;
+    }
+
+    private static void appendWay(StringBuilder xml, long v, long w) {
+        xml.append("<way id=\"").append(v * 10000 + w).append("\"><nd ref=\"").append(v)
+                .append("\"/><nd ref=\"").append(w)
+                .append("\"/><tag k=\"highway\" v=\"residential\"/>");
+        String maxSpeed = MAX_SPEEDS[(int) ((v * 7 + w) % MAX_SPEEDS.length)];
+        if (maxSpeed != null) {
+            xml.append("<tag k=\"maxspeed\" v=\"").append(maxSpeed).append("\"/>");
+        }
+        xml.append("</way>\n");
+    }
+
+    @Test
+    public void testSameLengthAsAStar() {
+        Random random = new Random(61);
+        int n = graph.vertexCount();
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            List<Long> expected = Router.shortestPath(graph, s, t, Router.Algorithm.ASTAR);
+            for (Router.Algorithm a : Router.Algorithm.values()) {
+                List<Long> actual = Router.shortestPath(graph, s, t, a);
+                assertEquals(a + " from " + s + " to " + t, length(expected), length(actual),
+                        1e-9);
+                if (!actual.isEmpty()) {
+                    assertEquals((Long) graph.idOf(s), actual.get(0));
+                    assertEquals((Long) graph.idOf(t), actual.get(actual.size() - 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameTimeAsDijkstra() {
+        Random random = new Random(21);
+        int n = graph.vertexCount();
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            double expected = dijkstraTime(s, t);
+            for (Router.Algorithm a : Router.Algorithm.values()) {
+                List<Long> actual = Router.shortestPath(graph, s, t, a, Router.Metric.TIME);
+                assertEquals(a + " from " + s + " to " + t, expected, time(actual), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceMatrix() {
+        Random random = new Random(22);
+        int n = graph.vertexCount();
+        int[] sources = new int[12];
+        int[] targets = new int[15];
+        for (int i = 0; i < sources.length; i += 1) {
+            sources[i] = random.nextInt(n);
+        }
+        for (int j = 0; j < targets.length; j += 1) {
+            targets[j] = random.nextInt(n);
+        }
+        sources[0] = graph.indexOf(ISLAND);
+        targets[1] = targets[0];
+        targets[2] = sources[3];
+        ForkJoinPool pool = new ForkJoinPool(3);
+        for (Router.Metric m : Router.Metric.values()) {
+            double[][] matrix = Router.distanceMatrix(graph, sources, targets, m, pool);
+            assertEquals(sources.length, matrix.length);
+            for (int i = 0; i < sources.length; i += 1) {
+                assertEquals(targets.length, matrix[i].length);
+                for (int j = 0; j < targets.length; j += 1) {
+                    List<Long> path = Router.shortestPath(graph, sources[i], targets[j],
+                            Router.Algorithm.ASTAR, m);
+                    double expected = path.isEmpty() ? Double.POSITIVE_INFINITY
+                            : m == Router.Metric.TIME ? time(path) : length(path);
+                    assertEquals(m + " from " + sources[i] + " to " + targets[j], expected,
+                            matrix[i][j], 1e-6);
+                }
+            }
+            assertEquals(0, matrix[3][2], 0.0);
+            double[][] sequential = Router.distanceMatrix(graph, sources, targets, m);
+            for (int i = 0; i < sources.length; i += 1) {
+                assertArrayEquals(matrix[i], sequential[i], 0.0);
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testZeroLengthEdges() throws Exception {
+        /* Clusters of four nodes at the same spot, a hub and three spokes, strung along a line.
+         * Every path through a hub weighs nothing, and contracting a hub must keep its spokes
+         * connected all the same. */
+        int clusters = 12;
+        StringBuilder xml = new StringBuilder("<osm>\n");
+        for (int k = 0; k < clusters; k += 1) {
+            for (int i = 0; i < 4; i += 1) {
+                xml.append("<node id=\"").append(10 * k + i + 1).append("\" lat=\"37.87\" lon=\"")
+                        .append(-122.26 + k * 0.001).append("\"/>\n");
+            }
+            for (int i = 2; i <= 4; i += 1) {
+                appendWay(xml, 10 * k + 1, 10 * k + i);
+            }
+            if (k > 0) {
+                appendWay(xml, 10 * (k - 1) + 3, 10 * k + 2);
+            }
+        }
+        xml.append("</osm>\n");
+        File file = File.createTempFile("zero", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+        GraphDB g = new GraphDB(file.getPath());
+
+        int n = g.vertexCount();
+        assertEquals(4 * clusters, n);
+        for (Router.Metric m : Router.Metric.values()) {
+            for (int s = 0; s < n; s += 1) {
+                for (int t = 0; t < n; t += 1) {
+                    List<Long> expected = Router.shortestPath(g, s, t, Router.Algorithm.ASTAR, m);
+                    List<Long> actual = Router.shortestPath(g, s, t, Router.Algorithm.CH, m);
+                    assertEquals(m + " from " + s + " to " + t, expected.isEmpty(),
+                            actual.isEmpty());
+                    assertEquals(m + " from " + s + " to " + t, cost(g, expected, m),
+                            cost(g, actual, m), 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTrivialAndUnreachable() {
+        int s = graph.indexOf(id(3, 4));
+        int island = graph.indexOf(ISLAND);
+        for (Router.Algorithm a : Router.Algorithm.values()) {
+            assertEquals(Arrays.asList(id(3, 4)), Router.shortestPath(graph, s, s, a));
+            assertTrue(Router.shortestPath(graph, s, island, a).isEmpty());
+            assertEquals(Arrays.asList(ISLAND, ISLAND + 1),
+                    Router.shortestPath(graph, island, island + 1, a));
+        }
+    }
+
+    /** Returns the least travel time from s to t by Dijkstra's algorithm, or -1. */
+    private static double dijkstraTime(int s, int t) {
+        SearchSpace space = new SearchSpace(graph.vertexCount());
+        space.reset();
+        space.reach(s, 0, -1);
+        space.queue.put(s, 0);
+        while (!space.queue.isEmpty()) {
+            int v = space.queue.poll();
+            if (v == t) {
+                return space.distTo(t);
+            }
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e += 1) {
+                int w = graph.edgeTarget(e);
+                double d = space.distTo(v) + graph.edgeTime(e);
+                if (d < space.distTo(w)) {
+                    space.reach(w, d, v);
+                    space.queue.put(w, d);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the travel time of a path, or -1 if it is empty. */
+    private static double time(List<Long> path) {
+        if (path.isEmpty()) {
+            return -1;
+        }
+        double time = 0;
+        for (int i = 1; i < path.size(); i += 1) {
+            int v = graph.indexOf(path.get(i - 1));
+            int w = graph.indexOf(path.get(i));
+            double edge = Double.POSITIVE_INFINITY;
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e += 1) {
+                if (graph.edgeTarget(e) == w) {
+                    edge = graph.edgeTime(e);
+                }
+            }
+            assertTrue(v + " and " + w + " are not adjacent", edge < Double.POSITIVE_INFINITY);
+            time += edge;
+        }
+        return time;
+    }
+
+    /** Returns the length of a path, checking that it only uses edges of the graph. */
+    private static double length(List<Long> path) {
+        if (path.isEmpty()) {
+            return -1;
+        }
+        double length = 0;
+        for (int i = 1; i < path.size(); i += 1) {
+            long v = path.get(i - 1);
+            long w = path.get(i);
+            boolean adjacent = false;
+            for (long u : graph.adjacent(v)) {
+                adjacent |= u == w;
+            }
+            assertTrue(v + " and " + w + " are not adjacent", adjacent);
+            length += graph.distance(v, w);
+        }
+        return length;
+    }
+
+    /** Returns the cost of a path in a graph under a metric. */
+    private static double cost(GraphDB g, List<Long> path, Router.Metric m) {
+        double cost = 0;
+        for (int i = 1; i < path.size(); i += 1) {
+            int e = g.edgeBetween(g.indexOf(path.get(i - 1)), g.indexOf(path.get(i)));
+            assertTrue(e >= 0);
+            cost += m == Router.Metric.TIME ? g.edgeTime(e) : g.edgeLength(e);
+        }
+        return cost;
+    }
+}
@@ -2,6 +2,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -63,4 +64,32 @@ public class TestRouterTiny {
         expected.add(55L);
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testDirections() {
+        List<Long> path = Arrays.asList(11L, 22L, 46L, 66L, 63L, 55L);
+        List<Router.NavigationDirection> directions = Router.routeDirections(graphTiny, path);
+        double alpha = graphTiny.distance(11L, 22L) + graphTiny.distance(22L, 46L)
+                + graphTiny.distance(46L, 66L);
+        /* East along Alpha Street, south down Beta Avenue, then back north west. */
+        assertEquals(Arrays.asList(
+                String.format("Start on Alpha Street and continue for %.3f miles.", alpha),
+                String.format("Turn right on Beta Avenue and continue for %.3f miles.",
+                        graphTiny.distance(66L, 63L)),
+                String.format("Sharp right on  and continue for %.3f miles.",
+                        graphTiny.distance(63L, 55L))),
+                toStrings(directions));
+
+        assertEquals(1, Router.routeDirections(graphTiny, Arrays.asList(41L, 63L, 66L)).size());
+        assertEquals(0, Router.routeDirections(graphTiny, Arrays.asList(41L)).size());
+        assertEquals(0, Router.routeDirections(graphTiny, new ArrayList<>()).size());
+    }
+
+    private static List<String> toStrings(List<Router.NavigationDirection> directions) {
+        List<String> result = new ArrayList<>();
+        for (Router.NavigationDirection d : directions) {
+            result.add(d.toString());
+        }
+        return result;
+    }
 }
@@ -0,0 +1,152 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the nearest, k-nearest and radius queries of SpatialIndex against brute force on
+ * random points around Berkeley, including duplicate points.
+ */
+public class TestSpatialIndex {
+    private static final int NUM_POINTS = 5000;
+    private static final int NUM_QUERIES = 500;
+    private final Random random = new Random(1337);
+    private final double[] lons = new double[NUM_POINTS];
+    private final double[] lats = new double[NUM_POINTS];
+
+    public TestSpatialIndex() {
+        for (int i = 0; i < NUM_POINTS; i += 1) {
+            if (i > 0 && i % 10 == 0) {
+                /* Every tenth point duplicates another, so ties have to be broken the same way. */
+                lons[i] = lons[i / 2];
+                lats[i] = lats[i / 2];
+            } else {
+                lons[i] = randomLon();
+                lats[i] = randomLat();
+            }
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        SpatialIndex index = new SpatialIndex(lons, lats);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            double lon = randomLon();
+            double lat = randomLat();
+            assertEquals(sortedByDistance(lon, lat)[0], index.nearest(lon, lat));
+        }
+        /* A query right on top of a point. */
+        assertEquals(42, index.nearest(lons[42], lats[42]));
+    }
+
+    @Test
+    public void testKNearest() {
+        SpatialIndex index = new SpatialIndex(lons, lats);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            double lon = randomLon();
+            double lat = randomLat();
+            int k = 1 + random.nextInt(20);
+            int[] expected = Arrays.copyOf(sortedByDistance(lon, lat), k);
+            assertArrayEquals(expected, index.nearest(lon, lat, k));
+        }
+        assertEquals(NUM_POINTS, index.nearest(0, 0, 2 * NUM_POINTS).length);
+    }
+
+    @Test
+    public void testWithin() {
+        SpatialIndex index = new SpatialIndex(lons, lats);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            double lon = randomLon();
+            double lat = randomLat();
+            double miles = random.nextDouble() * 0.5;
+            int[] actual = index.within(lon, lat, miles);
+            Arrays.sort(actual);
+            for (int i : actual) {
+                assertTrue(GraphDB.distance(lons[i], lats[i], lon, lat) <= miles + 1e-9);
+            }
+            for (int i = 0; i < NUM_POINTS; i += 1) {
+                if (GraphDB.distance(lons[i], lats[i], lon, lat) < miles - 1e-9) {
+                    assertTrue(Arrays.binarySearch(actual, i) >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentQueries() {
+        SpatialIndex index = new SpatialIndex(lons, lats);
+        double[] queryLons = new double[NUM_QUERIES];
+        double[] queryLats = new double[NUM_QUERIES];
+        int[][] expected = new int[NUM_QUERIES][];
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            queryLons[q] = randomLon();
+            queryLats[q] = randomLat();
+            expected[q] = index.nearest(queryLons[q], queryLats[q], 1 + q % 8);
+        }
+        /* Every thread runs every query, so any thread sharing another's state shows up. */
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<ForkJoinTask<int[][]>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t += 1) {
+            tasks.add(pool.submit(() -> {
+                int[][] actual = new int[NUM_QUERIES][];
+                for (int q = 0; q < NUM_QUERIES; q += 1) {
+                    actual[q] = index.nearest(queryLons[q], queryLats[q], 1 + q % 8);
+                    index.within(queryLons[q], queryLats[q], 0.1);
+                }
+                return actual;
+            }));
+        }
+        for (ForkJoinTask<int[][]> task : tasks) {
+            int[][] actual = task.join();
+            for (int q = 0; q < NUM_QUERIES; q += 1) {
+                assertArrayEquals(expected[q], actual[q]);
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testEmpty() {
+        SpatialIndex index = new SpatialIndex(new double[0], new double[0]);
+        assertEquals(-1, index.nearest(-122.25, 37.87));
+        assertEquals(0, index.nearest(-122.25, 37.87, 3).length);
+        assertEquals(0, index.within(-122.25, 37.87, 1).length);
+    }
+
+    /** Returns all point indices, closest to (lon, lat) first, ties by index. */
+    private int[] sortedByDistance(double lon, double lat) {
+        Integer[] order = new Integer[NUM_POINTS];
+        double[] distances = new double[NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i += 1) {
+            order[i] = i;
+            distances[i] = GraphDB.distance(lons[i], lats[i], lon, lat);
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Double.compare(distances[a], distances[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        int[] result = new int[NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i += 1) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private double randomLon() {
+        return MapServer.ROOT_ULLON
+                + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+    }
+
+    private double randomLat() {
+        return MapServer.ROOT_LRLAT
+                + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+    }
+}
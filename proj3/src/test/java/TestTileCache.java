@@ -0,0 +1,91 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that TileCache decodes each tile once, stays within its byte bound, and warms up only
+ * the tiles it is asked to, on a few small tiles written to a temporary folder.
+ */
+public class TestTileCache {
+    private static final int SIZE = 16;
+    private static String root;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        dir.deleteOnExit();
+        root = dir.getPath() + File.separator;
+        for (int d = 0; d <= 2; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    BufferedImage img = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+                    img.setRGB(0, 0, d * 100 + y * 10 + x);
+                    File file = new File(root + TileCache.tileName(d, x, y));
+                    file.deleteOnExit();
+                    ImageIO.write(img, "png", file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        TileCache cache = new TileCache(root);
+        BufferedImage tile = cache.get("d2_x3_y1.png");
+        assertEquals(213, tile.getRGB(0, 0) & 0xffffff);
+        assertSame(tile, cache.get("d2_x3_y1.png"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0.5, cache.hitRate(), 0.0);
+        assertEquals(TileCache.sizeOf(tile), cache.bytes());
+    }
+
+    @Test
+    public void testEvictionByBytes() {
+        long tileBytes = TileCache.sizeOf(new TileCache(root).get("d0_x0_y0.png"));
+        TileCache cache = new TileCache(root, 2 * tileBytes);
+        BufferedImage first = cache.get("d1_x0_y0.png");
+        cache.get("d1_x1_y0.png");
+        /* Touch the first, so that the second is the least recently used. */
+        cache.get("d1_x0_y0.png");
+        cache.get("d1_x0_y1.png");
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get("d1_x0_y0.png"));
+        assertEquals(2 * tileBytes, cache.bytes());
+    }
+
+    @Test
+    public void testWarmUp() {
+        TileCache cache = new TileCache(root);
+        /* Depth 2 is all there is in the folder; deeper tiles are skipped, not errors. */
+        assertEquals(1 + 4 + 16, cache.warmUp(TileCache.MAX_DEPTH));
+        cache.get("d2_x0_y0.png");
+        assertEquals(1, cache.hits());
+        assertEquals(0, cache.misses());
+        assertNull(cache.get("missing.png"));
+    }
+
+    @Test
+    public void testWarmUpDepthProperty() {
+        try {
+            assertEquals(TileCache.DEFAULT_WARM_UP_DEPTH, TileCache.warmUpDepthProperty());
+            System.setProperty(TileCache.WARM_UP_PROPERTY, " 5");
+            assertEquals(5, TileCache.warmUpDepthProperty());
+            System.setProperty(TileCache.WARM_UP_PROPERTY, "0");
+            assertEquals(0, TileCache.warmUpDepthProperty());
+            System.setProperty(TileCache.WARM_UP_PROPERTY, "deep");
+            assertEquals(TileCache.DEFAULT_WARM_UP_DEPTH, TileCache.warmUpDepthProperty());
+        } finally {
+            System.clearProperty(TileCache.WARM_UP_PROPERTY);
+        }
+    }
+}